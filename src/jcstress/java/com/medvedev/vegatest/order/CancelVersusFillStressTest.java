@@ -0,0 +1,42 @@
+package com.medvedev.vegatest.order;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+/**
+ * A resting order is cancelled while an incoming order fills part of it. Results are the open quantity
+ * of the buyer and of the seller once both actors are done.
+ */
+@JCStressTest
+@Outcome(id = "0, 5", expect = Expect.ACCEPTABLE, desc = "Cancel first, the sell order rests in the book")
+@Outcome(id = "0, 0", expect = Expect.ACCEPTABLE, desc = "Fill first, the cancel releases the rest of the buy order")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Exposure is leaked or released twice")
+@State
+public class CancelVersusFillStressTest {
+    private final OrderBookFixture fixture = new OrderBookFixture();
+
+    public CancelVersusFillStressTest() {
+        fixture.addOrder("buyOrder", "Buyer", Order.Type.BUY, "10");
+    }
+
+    @Actor
+    public void fill() {
+        fixture.addOrder("sellOrder", "Seller", Order.Type.SELL, "5");
+    }
+
+    @Actor
+    public void cancel() {
+        fixture.orderBook.cancelOrder("buyOrder");
+    }
+
+    @Arbiter
+    public void arbiter(II_Result result) {
+        result.r1 = fixture.openQuantity("Buyer");
+        result.r2 = fixture.openQuantity("Seller");
+    }
+}
@@ -0,0 +1,46 @@
+package com.medvedev.vegatest.order;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.III_Result;
+
+/**
+ * Two incoming orders race for the whole quantity of one resting order. Results are the remaining quantity
+ * of the resting order and of both incoming orders.
+ */
+@JCStressTest
+@Outcome(id = "0, 0, 10", expect = Expect.ACCEPTABLE, desc = "First seller fills the buy order, second one rests")
+@Outcome(id = "0, 10, 0", expect = Expect.ACCEPTABLE, desc = "Second seller fills the buy order, first one rests")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Resting order is over-filled")
+@State
+public class CompetingFillsStressTest {
+    private final OrderBookFixture fixture = new OrderBookFixture();
+    private final Order buyOrder;
+    private Order firstSellOrder;
+    private Order secondSellOrder;
+
+    public CompetingFillsStressTest() {
+        buyOrder = fixture.addOrder("buyOrder", "Buyer", Order.Type.BUY, "10");
+    }
+
+    @Actor
+    public void firstSeller() {
+        firstSellOrder = fixture.addOrder("sellOrder1", "Seller1", Order.Type.SELL, "10");
+    }
+
+    @Actor
+    public void secondSeller() {
+        secondSellOrder = fixture.addOrder("sellOrder2", "Seller2", Order.Type.SELL, "10");
+    }
+
+    @Arbiter
+    public void arbiter(III_Result result) {
+        result.r1 = buyOrder.getQuantity().intValueExact();
+        result.r2 = firstSellOrder.getQuantity().intValueExact();
+        result.r3 = secondSellOrder.getQuantity().intValueExact();
+    }
+}
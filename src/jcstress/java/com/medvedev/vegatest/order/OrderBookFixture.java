@@ -0,0 +1,45 @@
+package com.medvedev.vegatest.order;
+
+import com.medvedev.vegatest.financialinstrument.FinancialInstrument;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsProperties;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsService;
+import com.medvedev.vegatest.marketdata.BarAggregator;
+import com.medvedev.vegatest.marketdata.MarketDataProperties;
+import com.medvedev.vegatest.risk.PreTradeRiskCheck;
+import com.medvedev.vegatest.risk.RiskLimitsProperties;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.util.Map;
+import java.util.Set;
+
+// Order book wired with real collaborators and no limits, shared by the stress tests
+class OrderBookFixture {
+    static final String INSTRUMENT_ID = "FI1";
+
+    final PreTradeRiskCheck riskCheck;
+    final OrderBook orderBook;
+
+    OrderBookFixture() {
+        final var clock = Clock.systemUTC();
+        final var financialInstrumentsService = new FinancialInstrumentsService(new FinancialInstrumentsProperties(
+                Map.of(INSTRUMENT_ID, "Stock1"),
+                Set.of(new FinancialInstrument().setId(INSTRUMENT_ID)),
+                Set.of()
+        ));
+        this.riskCheck = new PreTradeRiskCheck(new RiskLimitsProperties(null, null, null, null), financialInstrumentsService, clock);
+        this.orderBook = new OrderBook(new OrderValidator(financialInstrumentsService, clock), riskCheck, financialInstrumentsService,
+                new BarAggregator(new MarketDataProperties(null, null, null), clock),
+                new OrderBookProperties(SelfTradePreventionMode.NONE, null, null, null), clock);
+    }
+
+    Order addOrder(String id, String traderId, Order.Type type, String quantity) {
+        final var order = new Order(id, INSTRUMENT_ID, traderId, new BigDecimal("100"), new BigDecimal(quantity), type);
+        orderBook.addOrder(order);
+        return order;
+    }
+
+    int openQuantity(String traderId) {
+        return riskCheck.getOpenQuantity(traderId).intValueExact();
+    }
+}
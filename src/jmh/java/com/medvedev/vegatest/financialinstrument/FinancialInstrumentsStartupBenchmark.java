@@ -0,0 +1,91 @@
+package com.medvedev.vegatest.financialinstrument;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Startup cost of building FinancialInstrumentsService from bound properties versus the binary catalog
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FinancialInstrumentsStartupBenchmark {
+    private static final int LEGS_PER_COMPOSITE = 4;
+
+    @Param({"100000"})
+    private int instrumentCount;
+
+    private FinancialInstrumentsProperties yamlProperties;
+    private FinancialInstrumentsProperties catalogProperties;
+    private Path catalogFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        final var simpleCount = instrumentCount * 9 / 10;
+        final var mapping = new HashMap<String, String>();
+        final var simpleInstruments = new HashSet<FinancialInstrument>();
+        final var compositeInstruments = new HashSet<CompositeFinancialInstrument>();
+        final var catalogInstruments = new ArrayList<FinancialInstrument>();
+
+        for (int i = 0; i < simpleCount; i++) {
+            mapping.put("S" + i, "Stock" + i);
+            simpleInstruments.add(new FinancialInstrument().setId("S" + i));
+            catalogInstruments.add(new FinancialInstrument("S" + i, "Stock" + i, BigDecimal.ZERO));
+        }
+        for (int i = simpleCount; i < instrumentCount; i++) {
+            mapping.put("C" + i, "Combo" + i);
+            final var legs = ThreadLocalRandom.current().ints(LEGS_PER_COMPOSITE, 0, simpleCount).boxed().collect(Collectors.toSet());
+            compositeInstruments.add(new CompositeFinancialInstrument("C" + i, null, BigDecimal.ZERO, children(legs, false)));
+            catalogInstruments.add(new CompositeFinancialInstrument("C" + i, "Combo" + i, BigDecimal.ZERO, children(legs, true)));
+        }
+
+        yamlProperties = new FinancialInstrumentsProperties(mapping, simpleInstruments, compositeInstruments);
+
+        catalogFile = Files.createTempFile("instruments", ".bin");
+        FinancialInstrumentCatalog.write(catalogFile, catalogInstruments);
+        catalogProperties = new FinancialInstrumentsProperties(null, null, null, catalogFile.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(catalogFile);
+    }
+
+    @Benchmark
+    public FinancialInstrumentsService fromProperties() {
+        return new FinancialInstrumentsService(yamlProperties);
+    }
+
+    @Benchmark
+    public FinancialInstrumentsService fromCatalog() {
+        return new FinancialInstrumentsService(catalogProperties);
+    }
+
+    private static Set<FinancialInstrument> children(Set<Integer> legs, boolean withSymbol) {
+        return legs.stream()
+                .map(leg -> new FinancialInstrument("S" + leg, withSymbol ? "Stock" + leg : null, BigDecimal.ZERO))
+                .collect(Collectors.toSet());
+    }
+}
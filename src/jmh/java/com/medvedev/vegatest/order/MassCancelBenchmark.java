@@ -0,0 +1,85 @@
+package com.medvedev.vegatest.order;
+
+import com.medvedev.vegatest.financialinstrument.FinancialInstrument;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsProperties;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsService;
+import com.medvedev.vegatest.marketdata.BarAggregator;
+import com.medvedev.vegatest.marketdata.MarketDataProperties;
+import com.medvedev.vegatest.risk.PreTradeRiskCheck;
+import com.medvedev.vegatest.risk.RiskLimitsProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+// Target: each mass cancel finishes in milliseconds with 1M resting orders
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class MassCancelBenchmark {
+    private static final int INSTRUMENT_COUNT = 100;
+    private static final int TRADER_COUNT = 1_000;
+
+    @Param({"1000000"})
+    private int orderCount;
+
+    private OrderBook orderBook;
+
+    // the book is rebuilt for every shot, since each benchmark empties at least a part of it
+    @Setup(Level.Iteration)
+    public void setUp() {
+        final var mapping = new HashMap<String, String>();
+        final var instruments = new HashSet<FinancialInstrument>();
+        for (int i = 0; i < INSTRUMENT_COUNT; i++) {
+            mapping.put("S" + i, "Stock" + i);
+            instruments.add(new FinancialInstrument().setId("S" + i));
+        }
+        final var clock = Clock.systemUTC();
+        final var financialInstrumentsService = new FinancialInstrumentsService(new FinancialInstrumentsProperties(mapping, instruments, new HashSet<>()));
+        final var riskCheck = new PreTradeRiskCheck(new RiskLimitsProperties(null, null, null, null), financialInstrumentsService, clock);
+        orderBook = new OrderBook(new OrderValidator(financialInstrumentsService, clock), riskCheck, financialInstrumentsService,
+                new BarAggregator(new MarketDataProperties(null, null, null), clock),
+                new OrderBookProperties(SelfTradePreventionMode.NONE, null, null, null), clock);
+
+        // buys below and sells above 1000, so that nothing trades while the book fills up
+        for (int i = 0; i < orderCount; i++) {
+            final var type = i % 2 == 0 ? Order.Type.BUY : Order.Type.SELL;
+            final var price = BigDecimal.valueOf(type == Order.Type.BUY ? 999 - i % 500 : 1001 + i % 500);
+            final var order = new Order("O" + i, "S" + (i % INSTRUMENT_COUNT), "Trader" + (i % TRADER_COUNT), price, BigDecimal.TEN, type);
+            riskCheck.check(order);
+            orderBook.addOrderWithoutProcessing(order);
+        }
+    }
+
+    @Benchmark
+    public int cancelAllByTraderId() {
+        return orderBook.cancelAllByTraderId("Trader0");
+    }
+
+    @Benchmark
+    public int cancelAllByFinancialInstrumentId() {
+        return orderBook.cancelAllByFinancialInstrumentId("S0");
+    }
+
+    @Benchmark
+    public int cancelAll() {
+        return orderBook.cancelAll();
+    }
+}
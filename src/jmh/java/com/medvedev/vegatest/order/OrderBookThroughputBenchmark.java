@@ -0,0 +1,84 @@
+package com.medvedev.vegatest.order;
+
+import com.medvedev.vegatest.financialinstrument.FinancialInstrument;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsProperties;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsService;
+import com.medvedev.vegatest.marketdata.BarAggregator;
+import com.medvedev.vegatest.marketdata.MarketDataProperties;
+import com.medvedev.vegatest.risk.PreTradeRiskCheck;
+import com.medvedev.vegatest.risk.RiskLimitsProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Target: order flow spread over independent instruments scales with the number of threads, flow into one instrument does not
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderBookThroughputBenchmark {
+    private static final BigDecimal[] PRICES = {new BigDecimal("99"), new BigDecimal("100"), new BigDecimal("101")};
+
+    @Param({"1", "64"})
+    private int instrumentCount;
+
+    private final AtomicLong orderIds = new AtomicLong();
+    private OrderBook orderBook;
+
+    // a fresh book per iteration, so that resting orders left by unbalanced flow do not pile up
+    @Setup(Level.Iteration)
+    public void setUp() {
+        final var mapping = new HashMap<String, String>();
+        final var instruments = new HashSet<FinancialInstrument>();
+        for (int i = 0; i < instrumentCount; i++) {
+            mapping.put("S" + i, "Stock" + i);
+            instruments.add(new FinancialInstrument().setId("S" + i));
+        }
+        final var clock = Clock.systemUTC();
+        final var financialInstrumentsService = new FinancialInstrumentsService(new FinancialInstrumentsProperties(mapping, instruments, new HashSet<>()));
+        orderBook = new OrderBook(new OrderValidator(financialInstrumentsService, clock),
+                new PreTradeRiskCheck(new RiskLimitsProperties(null, null, null, null), financialInstrumentsService, clock),
+                financialInstrumentsService,
+                new BarAggregator(new MarketDataProperties(null, null, null), clock),
+                new OrderBookProperties(SelfTradePreventionMode.NONE, null, null, null), clock);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void addOrder() {
+        addRandomOrder();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addOrderFourThreads() {
+        addRandomOrder();
+    }
+
+    private void addRandomOrder() {
+        final var random = ThreadLocalRandom.current();
+        final var type = random.nextBoolean() ? Order.Type.BUY : Order.Type.SELL;
+        orderBook.addOrder(new Order("O" + orderIds.incrementAndGet(), "S" + random.nextInt(instrumentCount), "Trader" + type,
+                PRICES[random.nextInt(PRICES.length)], BigDecimal.TEN, type));
+    }
+}
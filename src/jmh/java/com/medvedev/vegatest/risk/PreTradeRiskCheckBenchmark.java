@@ -0,0 +1,63 @@
+package com.medvedev.vegatest.risk;
+
+import com.medvedev.vegatest.financialinstrument.FinancialInstrument;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsProperties;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsService;
+import com.medvedev.vegatest.order.Order;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Target: check + release of a single order stays under 1 microsecond
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreTradeRiskCheckBenchmark {
+    private PreTradeRiskCheck riskCheck;
+    private Order order;
+
+    @Setup
+    public void setUp() {
+        final var properties = new FinancialInstrumentsProperties(
+                Map.of("S1", "Stock1"),
+                Set.of(new FinancialInstrument().setId("S1")),
+                Set.of()
+        );
+        final var financialInstrumentsService = new FinancialInstrumentsService(properties);
+        financialInstrumentsService.updatePrice("S1", new BigDecimal("100"));
+
+        final var limits = new RiskLimitsProperties(new BigDecimal("10000000"), new BigDecimal("1000000"), null, BigDecimal.TEN);
+        riskCheck = new PreTradeRiskCheck(limits, financialInstrumentsService, Clock.systemUTC());
+        order = new Order("order1", "S1", "Trader1", new BigDecimal("101.25"), new BigDecimal("10"), Order.Type.BUY);
+    }
+
+    @Benchmark
+    public void checkAndRelease() {
+        riskCheck.check(order);
+        riskCheck.release(order, order.getQuantity());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void checkAndReleaseContended() {
+        riskCheck.check(order);
+        riskCheck.release(order, order.getQuantity());
+    }
+}
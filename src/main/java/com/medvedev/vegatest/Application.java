@@ -1,16 +1,34 @@
 package com.medvedev.vegatest;
 
 import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsProperties;
+import com.medvedev.vegatest.marketdata.MarketDataProperties;
+import com.medvedev.vegatest.order.OrderBookProperties;
+import com.medvedev.vegatest.risk.RiskLimitsProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.time.Clock;
 
 @SpringBootApplication
-@EnableConfigurationProperties(FinancialInstrumentsProperties.class)
+@EnableScheduling
+@EnableConfigurationProperties({
+		FinancialInstrumentsProperties.class,
+		RiskLimitsProperties.class,
+		OrderBookProperties.class,
+		MarketDataProperties.class
+})
 public class Application {
 
 	public static void main(String[] args) {
 		SpringApplication.run(Application.class, args);
 	}
 
+	@Bean
+	public Clock clock() {
+		return Clock.systemUTC();
+	}
+
 }
@@ -1,7 +1,11 @@
 package com.medvedev.vegatest.financialinstrument;
 
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 import java.math.BigDecimal;
 import java.util.Set;
@@ -10,9 +14,25 @@ import java.util.Set;
 @EqualsAndHashCode(callSuper = true)
 public class CompositeFinancialInstrument extends FinancialInstrument {
     private Set<FinancialInstrument> childInstruments;
+    // derived from the order books of the legs, so it is not part of the instrument definition
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final LegQuotes legQuotes = new LegQuotes();
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile FairValue fairValue = FairValue.UNKNOWN;
 
     public CompositeFinancialInstrument(String id, String symbol, BigDecimal price, Set<FinancialInstrument> childInstruments) {
         super(id, symbol, price);
         this.childInstruments = childInstruments;
     }
+
+    /**
+     * Moves the fair value by the change of one leg's top of book, a null price means the leg has no priced order on that side.
+     */
+    public synchronized void updateLegQuote(String legId, BigDecimal bid, BigDecimal ask) {
+        fairValue = legQuotes.update(legId, bid, ask, childInstruments.size());
+    }
 }
@@ -0,0 +1,16 @@
+package com.medvedev.vegatest.financialinstrument;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fair value of a composite summed from the top of book of its legs. A side is null while any leg has no priced order on it.
+ */
+public record FairValue(BigDecimal bid, BigDecimal ask, BigDecimal mid) {
+    public static final FairValue UNKNOWN = new FairValue(null, null, null);
+
+    static FairValue of(BigDecimal bid, BigDecimal ask) {
+        final var mid = bid == null || ask == null ? null : bid.add(ask).divide(BigDecimal.valueOf(2), RoundingMode.HALF_EVEN);
+        return new FairValue(bid, ask, mid);
+    }
+}
@@ -0,0 +1,200 @@
+package com.medvedev.vegatest.financialinstrument;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Binary instrument catalog for large instrument universes, an alternative to binding instruments from YAML.
+ * <p>
+ * Layout: header {@code magic:int, version:int, count:int}, record offsets {@code int[count]}, then records
+ * {@code id:string, symbol:string, childCount:int, childIndexes:int[], dependentCount:int, dependentIndexes:int[]}.
+ * Strings are stored as {@code length:unsigned short} followed by UTF-8 bytes, so longer ones are rejected. Dependent indexes are the precomputed
+ * composites containing the instrument, so loading never has to scan composite children. Instrument ids are unique
+ * within a catalog.
+ */
+public final class FinancialInstrumentCatalog {
+    private static final int MAGIC = 0x46494354;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private FinancialInstrumentCatalog() {
+    }
+
+    public static void write(Path path, Collection<? extends FinancialInstrument> instruments) {
+        final var instrumentList = List.copyOf(instruments);
+        instrumentList.forEach(FinancialInstrumentValidator::validate);
+        final var indexPerId = new HashMap<String, Integer>();
+        for (int i = 0; i < instrumentList.size(); i++) {
+            final var id = instrumentList.get(i).getId();
+            Validate.validState(indexPerId.put(id, i) == null,
+                    "financialInstrumentId=%s is in the catalog more than once", StringUtils.abbreviate(id, 64));
+        }
+
+        final var dependentIndexes = new ArrayList<List<Integer>>(instrumentList.size());
+        instrumentList.forEach(instrument -> dependentIndexes.add(new ArrayList<>()));
+        final var childIndexes = new int[instrumentList.size()][];
+        for (int i = 0; i < instrumentList.size(); i++) {
+            childIndexes[i] = instrumentList.get(i) instanceof CompositeFinancialInstrument composite
+                    ? composite.getChildInstruments().stream().mapToInt(child -> indexOf(indexPerId, composite, child)).toArray()
+                    : new int[0];
+            for (final var childIndex : childIndexes[i]) {
+                dependentIndexes.get(childIndex).add(i);
+            }
+        }
+
+        try {
+            final var records = new ByteArrayOutputStream();
+            final var recordsOutput = new DataOutputStream(records);
+            final var offsets = new int[instrumentList.size()];
+            final var recordsStart = HEADER_SIZE + Integer.BYTES * instrumentList.size();
+            for (int i = 0; i < instrumentList.size(); i++) {
+                offsets[i] = recordsStart + recordsOutput.size();
+                writeString(recordsOutput, instrumentList.get(i), "id", instrumentList.get(i).getId());
+                writeString(recordsOutput, instrumentList.get(i), "symbol", instrumentList.get(i).getSymbol());
+                writeIndexes(recordsOutput, Arrays.stream(childIndexes[i]).boxed().toList());
+                writeIndexes(recordsOutput, dependentIndexes.get(i));
+            }
+
+            final var header = ByteBuffer.allocate(recordsStart);
+            header.putInt(MAGIC).putInt(VERSION).putInt(instrumentList.size());
+            Arrays.stream(offsets).forEach(header::putInt);
+
+            try (final var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                channel.write(header.flip());
+                channel.write(ByteBuffer.wrap(records.toByteArray()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not write financial instrument catalog %s".formatted(path), e);
+        }
+    }
+
+    /**
+     * Maps the catalog and decodes its records in parallel.
+     */
+    public static Contents read(Path path) {
+        final ByteBuffer buffer;
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Files.size(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not read financial instrument catalog %s".formatted(path), e);
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalStateException("%s is not a financial instrument catalog of version %d".formatted(path, VERSION));
+        }
+        final var count = buffer.getInt(8);
+
+        // first pass decodes plain values, so that the second one can link instruments by index
+        final var records = new CatalogRecord[count];
+        IntStream.range(0, count).parallel()
+                .forEach(i -> records[i] = readRecord(buffer, buffer.getInt(HEADER_SIZE + Integer.BYTES * i)));
+
+        final var instruments = new FinancialInstrument[count];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            final var record = records[i];
+            instruments[i] = record.childIndexes().length == 0
+                    ? new FinancialInstrument(record.id(), record.symbol(), BigDecimal.ZERO)
+                    : new CompositeFinancialInstrument(record.id(), record.symbol(), BigDecimal.ZERO, Arrays.stream(record.childIndexes())
+                    .mapToObj(childIndex -> new FinancialInstrument(records[childIndex].id(), records[childIndex].symbol(), BigDecimal.ZERO))
+                    .collect(Collectors.toCollection(HashSet::new)));
+        });
+
+        final var instrumentsPerId = new ConcurrentHashMap<String, FinancialInstrument>(count * 4 / 3 + 1);
+        final var dependentCompositeIdsPerId = new ConcurrentHashMap<String, Set<String>>();
+        IntStream.range(0, count).parallel().forEach(i -> {
+            // a hand-made or corrupted catalog must not silently replace one instrument by another
+            Validate.validState(instrumentsPerId.putIfAbsent(records[i].id(), instruments[i]) == null,
+                    "%s contains financialInstrumentId=%s more than once", path, StringUtils.abbreviate(records[i].id(), 64));
+            if (records[i].dependentIndexes().length > 0) {
+                dependentCompositeIdsPerId.put(records[i].id(), Arrays.stream(records[i].dependentIndexes())
+                        .mapToObj(dependentIndex -> records[dependentIndex].id())
+                        .collect(Collectors.toUnmodifiableSet()));
+            }
+        });
+
+        return new Contents(instrumentsPerId, dependentCompositeIdsPerId);
+    }
+
+    private static int indexOf(Map<String, Integer> indexPerId, FinancialInstrument composite, FinancialInstrument child) {
+        final var index = indexPerId.get(child.getId());
+        if (index == null) {
+            throw new IllegalStateException("Child financialInstrumentId=%s of composite financialInstrumentId=%s is missing in the catalog"
+                    .formatted(child.getId(), composite.getId()));
+        }
+        return index;
+    }
+
+    private static void writeString(DataOutputStream output, FinancialInstrument instrument, String name, String value) throws IOException {
+        final var bytes = value.getBytes(StandardCharsets.UTF_8);
+        // the length is written as unsigned short, a longer string would be truncated
+        Validate.validState(bytes.length <= MAX_STRING_BYTES, "financialInstrumentId=%s %s has %d UTF-8 bytes, the catalog stores at most %d",
+                StringUtils.abbreviate(instrument.getId(), 64), name, bytes.length, MAX_STRING_BYTES);
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    private static void writeIndexes(DataOutputStream output, List<Integer> indexes) throws IOException {
+        output.writeInt(indexes.size());
+        for (final var index : indexes) {
+            output.writeInt(index);
+        }
+    }
+
+    private static CatalogRecord readRecord(ByteBuffer buffer, int offset) {
+        var position = offset;
+        final var idLength = Short.toUnsignedInt(buffer.getShort(position));
+        final var id = readString(buffer, position + Short.BYTES, idLength);
+        position += Short.BYTES + idLength;
+        final var symbolLength = Short.toUnsignedInt(buffer.getShort(position));
+        final var symbol = readString(buffer, position + Short.BYTES, symbolLength);
+        position += Short.BYTES + symbolLength;
+        final var childIndexes = readIndexes(buffer, position);
+        position += Integer.BYTES * (childIndexes.length + 1);
+        final var dependentIndexes = readIndexes(buffer, position);
+        return new CatalogRecord(id, symbol, childIndexes, dependentIndexes);
+    }
+
+    private static String readString(ByteBuffer buffer, int offset, int length) {
+        final var bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int[] readIndexes(ByteBuffer buffer, int offset) {
+        final var indexes = new int[buffer.getInt(offset)];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = buffer.getInt(offset + Integer.BYTES * (i + 1));
+        }
+        return indexes;
+    }
+
+    public record Contents(ConcurrentHashMap<String, FinancialInstrument> instruments, Map<String, Set<String>> dependentCompositeIds) {
+    }
+
+    private record CatalogRecord(String id, String symbol, int[] childIndexes, int[] dependentIndexes) {
+    }
+}
@@ -1,14 +1,26 @@
 package com.medvedev.vegatest.financialinstrument;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.ConstructorBinding;
 
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * Instruments are either bound from YAML or, for large universes, loaded from the binary catalog in {@code catalogFile}.
+ */
 @ConfigurationProperties(prefix = "financial-instruments")
 public record FinancialInstrumentsProperties(
         Map<String, String> mapping,
         Set<FinancialInstrument> simpleInstruments,
-        Set<CompositeFinancialInstrument> compositeInstruments
+        Set<CompositeFinancialInstrument> compositeInstruments,
+        String catalogFile
 ) {
+    @ConstructorBinding
+    public FinancialInstrumentsProperties {
+    }
+
+    public FinancialInstrumentsProperties(Map<String, String> mapping, Set<FinancialInstrument> simpleInstruments, Set<CompositeFinancialInstrument> compositeInstruments) {
+        this(mapping, simpleInstruments, compositeInstruments, null);
+    }
 }
@@ -3,20 +3,79 @@ package com.medvedev.vegatest.financialinstrument;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 @Service
 public class FinancialInstrumentsService {
     private final Map<String, FinancialInstrument> financialInstruments;
     private final Map<String, Set<String>> compositeFinancialInstrumentsPerSimpleInstrumentId;
+    private final List<Consumer<FinancialInstrument>> putListeners = new CopyOnWriteArrayList<>();
 
     public FinancialInstrumentsService(FinancialInstrumentsProperties financialInstrumentsProperties) {
-        this.financialInstruments = new ConcurrentHashMap<>();
+        if (financialInstrumentsProperties.catalogFile() != null) {
+            final var catalog = FinancialInstrumentCatalog.read(Path.of(financialInstrumentsProperties.catalogFile()));
+            // instruments were validated when the catalog was written
+            this.financialInstruments = catalog.instruments();
+            this.compositeFinancialInstrumentsPerSimpleInstrumentId = Collections.unmodifiableMap(catalog.dependentCompositeIds());
+        } else {
+            this.financialInstruments = new ConcurrentHashMap<>();
+            this.compositeFinancialInstrumentsPerSimpleInstrumentId = Collections.unmodifiableMap(loadFromProperties(financialInstrumentsProperties));
+        }
+    }
+
+    public void put(FinancialInstrument instrument) {
+        FinancialInstrumentValidator.validate(instrument);
+        financialInstruments.put(instrument.getId(), instrument);
+        putListeners.forEach(listener -> listener.accept(instrument));
+    }
+
+    /**
+     * Registers a listener called after an instrument is put, for example because a new composite connects legs.
+     */
+    public void onPut(Consumer<FinancialInstrument> listener) {
+        putListeners.add(listener);
+    }
+
+    public FinancialInstrument get(String id) {
+        return financialInstruments.get(id);
+    }
+
+    public void updatePrice(String id, BigDecimal price) {
+        financialInstruments.computeIfPresent(id, (k, v) -> v.setPrice(price));
+    }
+
+    public Set<String> findDependentCompositeInstruments(String id) {
+        return compositeFinancialInstrumentsPerSimpleInstrumentId.getOrDefault(id, Set.of());
+    }
+
+    /**
+     * Moves the fair value of every composite the instrument is a leg of to the instrument's new top of book.
+     */
+    public void updateTopOfBook(String id, BigDecimal bestBid, BigDecimal bestAsk) {
+        for (final var compositeId : findDependentCompositeInstruments(id)) {
+            if (financialInstruments.get(compositeId) instanceof CompositeFinancialInstrument composite) {
+                composite.updateLegQuote(id, bestBid, bestAsk);
+            }
+        }
+    }
+
+    /**
+     * @return cached fair value of the composite, or null if the id does not belong to a composite
+     */
+    public FairValue getFairValue(String compositeId) {
+        return financialInstruments.get(compositeId) instanceof CompositeFinancialInstrument composite ? composite.getFairValue() : null;
+    }
+
+    private Map<String, Set<String>> loadFromProperties(FinancialInstrumentsProperties financialInstrumentsProperties) {
         final var mapping = financialInstrumentsProperties.mapping();
 
         financialInstrumentsProperties
@@ -36,40 +95,14 @@ public class FinancialInstrumentsService {
                 .peek(FinancialInstrumentValidator::validate)
                 .forEach(i -> financialInstruments.put(i.getId(), i));
 
-        compositeFinancialInstrumentsPerSimpleInstrumentId = Collections.unmodifiableMap(
-                financialInstrumentsProperties
-                .simpleInstruments()
-                .stream()
-                .collect(Collectors.toMap(
-                        FinancialInstrument::getId,
-                        key -> findCompositeIdsForSimpleInstrument(key, financialInstrumentsProperties.compositeInstruments()),
-                        (existing, replacement) -> existing,
-                        HashMap::new))
-        );
-    }
-
-    public void put(FinancialInstrument instrument) {
-        FinancialInstrumentValidator.validate(instrument);
-        financialInstruments.put(instrument.getId(), instrument);
-    }
-
-    public FinancialInstrument get(String id) {
-        return financialInstruments.get(id);
-    }
-
-    public void updatePrice(String id, BigDecimal price) {
-        financialInstruments.computeIfPresent(id, (k, v) -> v.setPrice(price));
-    }
-
-    public Set<String> findDependentCompositeInstruments(String id) {
-        return compositeFinancialInstrumentsPerSimpleInstrumentId.getOrDefault(id, Set.of());
+        return findCompositeIdsPerSimpleInstrumentId(financialInstrumentsProperties.compositeInstruments());
     }
 
-    private Set<String> findCompositeIdsForSimpleInstrument(FinancialInstrument simpleInstrument, Set<CompositeFinancialInstrument> compositeFinancialInstruments) {
-        return compositeFinancialInstruments.stream()
-                .filter(composite -> composite.getChildInstruments().stream()
-                        .anyMatch(child -> child.getId().equals(simpleInstrument.getId())))
-                .map(CompositeFinancialInstrument::getId)
-                .collect(Collectors.toSet());
+    // single pass over composite legs instead of scanning every composite for every simple instrument
+    private Map<String, Set<String>> findCompositeIdsPerSimpleInstrumentId(Set<CompositeFinancialInstrument> compositeFinancialInstruments) {
+        final var compositeIdsPerSimpleInstrumentId = new HashMap<String, Set<String>>();
+        compositeFinancialInstruments.forEach(composite -> composite.getChildInstruments().forEach(child ->
+                compositeIdsPerSimpleInstrumentId.computeIfAbsent(child.getId(), k -> new HashSet<>()).add(composite.getId())));
+        return compositeIdsPerSimpleInstrumentId;
     }
 }
@@ -0,0 +1,28 @@
+package com.medvedev.vegatest.financialinstrument;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+// Top of book of every leg of a composite together with running sums, so that a leg update costs the same for any number of legs
+class LegQuotes {
+    private final Map<String, BigDecimal> bidPerLegId = new HashMap<>();
+    private final Map<String, BigDecimal> askPerLegId = new HashMap<>();
+    private BigDecimal bidSum = BigDecimal.ZERO;
+    private BigDecimal askSum = BigDecimal.ZERO;
+
+    FairValue update(String legId, BigDecimal bid, BigDecimal ask, int legCount) {
+        bidSum = move(bidSum, bidPerLegId, legId, bid);
+        askSum = move(askSum, askPerLegId, legId, ask);
+        return FairValue.of(
+                bidPerLegId.size() == legCount ? bidSum : null,
+                askPerLegId.size() == legCount ? askSum : null);
+    }
+
+    // legs without a priced quote are not kept, so the sum is complete only when every leg is present
+    private static BigDecimal move(BigDecimal sum, Map<String, BigDecimal> quotePerLegId, String legId, BigDecimal quote) {
+        final var previous = quote == null ? quotePerLegId.remove(legId) : quotePerLegId.put(legId, quote);
+        final var withoutPrevious = previous == null ? sum : sum.subtract(previous);
+        return quote == null ? withoutPrevious : withoutPrevious.add(quote);
+    }
+}
@@ -0,0 +1,27 @@
+package com.medvedev.vegatest.marketdata;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.Instant;
+
+public record Bar(
+        Instant start,
+        BigDecimal open,
+        BigDecimal high,
+        BigDecimal low,
+        BigDecimal close,
+        BigDecimal volume,
+        BigDecimal vwap
+) {
+    static Bar of(long startMillis, BigDecimal open, BigDecimal high, BigDecimal low, BigDecimal close, BigDecimal volume, BigDecimal turnover) {
+        return new Bar(
+                Instant.ofEpochMilli(startMillis),
+                open,
+                high,
+                low,
+                close,
+                volume,
+                volume.signum() == 0 ? BigDecimal.ZERO : turnover.divide(volume, MathContext.DECIMAL64)
+        );
+    }
+}
@@ -0,0 +1,113 @@
+package com.medvedev.vegatest.marketdata;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Turns executed trades into OHLCV and VWAP bars per instrument. Every instrument keeps a fixed number of bars
+ * per interval in memory, completed bars are additionally appended to the history file when one is configured.
+ * <p>
+ * Trades arrive from matching, so they never touch the file: completed bars are queued and written by
+ * {@link #flushHistory()}.
+ */
+@Component
+@Slf4j
+public class BarAggregator implements AutoCloseable {
+    private static final BarInterval[] INTERVALS = BarInterval.values();
+
+    private final Map<String, InstrumentBars> barsPerInstrumentId;
+    private final int barsPerInterval;
+    private final BarHistoryFile historyFile;
+    private final Queue<CompletedBar> pendingHistory;
+    private final Clock clock;
+
+    public BarAggregator(MarketDataProperties properties, Clock clock) {
+        this.barsPerInstrumentId = new ConcurrentHashMap<>();
+        this.barsPerInterval = properties.barsPerInterval();
+        // opened at startup, so that a broken file or capacity fails the application instead of a trade
+        this.historyFile = properties.historyFile() == null
+                ? null
+                : new BarHistoryFile(Path.of(properties.historyFile()), properties.historyCapacity());
+        this.pendingHistory = new ConcurrentLinkedQueue<>();
+        this.clock = clock;
+    }
+
+    public void onTrade(String financialInstrumentId, BigDecimal price, BigDecimal quantity) {
+        final var timestamp = clock.millis();
+
+        final var bars = barsPerInstrumentId.computeIfAbsent(financialInstrumentId, this::newBars);
+        for (final var intervalBars : bars.intervalBars()) {
+            final var completedBar = intervalBars.add(timestamp, price, quantity, financialInstrumentId);
+            if (completedBar != null && bars.recordsHistory()) {
+                pendingHistory.add(completedBar);
+            }
+        }
+    }
+
+    /**
+     * @return up to {@code count} latest bars, oldest first. The last bar is the one currently being built.
+     */
+    public List<Bar> getBars(String financialInstrumentId, BarInterval interval, int count) {
+        final var bars = barsPerInstrumentId.get(financialInstrumentId);
+        return bars == null ? List.of() : bars.intervalBars()[interval.ordinal()].latest(count);
+    }
+
+    /**
+     * @return completed bars written to the history file so far, bars still waiting for {@link #flushHistory()} are not included
+     */
+    public List<Bar> getHistory(String financialInstrumentId, BarInterval interval) {
+        return historyFile == null ? List.of() : historyFile.read(financialInstrumentId, interval);
+    }
+
+    /**
+     * Appends queued completed bars to the history file. A bar that can not be written is logged and dropped, it is
+     * still available from {@link #getBars} until the ring buffer wraps around.
+     */
+    @Scheduled(fixedDelayString = "${market-data.history-flush-millis:1000}")
+    public void flushHistory() {
+        if (historyFile == null) {
+            return;
+        }
+        CompletedBar bar;
+        while ((bar = pendingHistory.poll()) != null) {
+            try {
+                historyFile.append(bar);
+            } catch (RuntimeException e) {
+                log.error("Can not append bar to history: {}", bar, e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (historyFile != null) {
+            flushHistory();
+            historyFile.close();
+        }
+    }
+
+    private InstrumentBars newBars(String financialInstrumentId) {
+        final var recordsHistory = historyFile != null && BarHistoryFile.fits(financialInstrumentId);
+        if (historyFile != null && !recordsHistory) {
+            log.warn("financialInstrumentId={} does not fit the bar history file, its bars are kept in memory only", financialInstrumentId);
+        }
+        final var bars = new BarRingBuffer[INTERVALS.length];
+        for (int i = 0; i < INTERVALS.length; i++) {
+            bars[i] = new BarRingBuffer(INTERVALS[i], barsPerInterval);
+        }
+        return new InstrumentBars(bars, recordsHistory);
+    }
+
+    private record InstrumentBars(BarRingBuffer[] intervalBars, boolean recordsHistory) {
+    }
+}
@@ -0,0 +1,149 @@
+package com.medvedev.vegatest.marketdata;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Memory-mapped ring of completed bars, readable by other processes without going through the service.
+ * <p>
+ * Layout: header {@code magic:int, version:int, capacity:int, written:long}, followed by {@code capacity} records of
+ * {@code instrumentId:byte[32] (UTF-8, zero padded), interval:int, reserved:int, start:long,
+ * open, high, low, close, volume, turnover:decimal}. A decimal is {@code unscaledValue:long, scale:int}, rounded to
+ * 18 significant digits so that the unscaled value fits a long. Record {@code written % capacity} is the next one to be
+ * overwritten.
+ */
+public class BarHistoryFile implements AutoCloseable {
+    private static final int MAGIC = 0x4F484C43;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 20;
+    private static final int WRITTEN_OFFSET = 12;
+    private static final int INSTRUMENT_ID_SIZE = 32;
+    private static final int DECIMAL_SIZE = 8 + 4;
+    private static final int RECORD_SIZE = INSTRUMENT_ID_SIZE + 4 + 4 + 8 + 6 * DECIMAL_SIZE;
+    // a single mapping is addressed by int
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+    private static final MathContext DECIMAL_PRECISION = new MathContext(18);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long written;
+
+    public BarHistoryFile(Path path, int capacity) {
+        Validate.isTrue(capacity > 0 && capacity <= MAX_CAPACITY,
+                "Bar history capacity must be between 1 and %d, got %d", MAX_CAPACITY, capacity);
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) RECORD_SIZE * capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not map bar history file %s".formatted(path), e);
+        }
+
+        if (buffer.getInt(0) == MAGIC) {
+            if (buffer.getInt(4) != VERSION || buffer.getInt(8) != capacity) {
+                close();
+                throw new IllegalStateException("Bar history file %s has incompatible version or capacity".formatted(path));
+            }
+            this.written = buffer.getLong(WRITTEN_OFFSET);
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, capacity);
+            buffer.putLong(WRITTEN_OFFSET, 0);
+        }
+        this.capacity = capacity;
+    }
+
+    public synchronized void append(CompletedBar bar) {
+        final var id = encode(bar.financialInstrumentId());
+        var position = position(written);
+
+        buffer.put(position, id);
+        position += INSTRUMENT_ID_SIZE;
+        buffer.putInt(position, bar.interval().ordinal());
+        buffer.putInt(position + 4, 0);
+        buffer.putLong(position + 8, bar.startMillis());
+        position += 16;
+        for (final var value : List.of(bar.open(), bar.high(), bar.low(), bar.close(), bar.volume(), bar.turnover())) {
+            putDecimal(position, value);
+            position += DECIMAL_SIZE;
+        }
+
+        written++;
+        buffer.putLong(WRITTEN_OFFSET, written);
+    }
+
+    /**
+     * @return bars of the given instrument and interval still present in the file, oldest first
+     */
+    public synchronized List<Bar> read(String financialInstrumentId, BarInterval interval) {
+        final var id = encode(financialInstrumentId);
+        final var recordId = new byte[INSTRUMENT_ID_SIZE];
+        final var result = new ArrayList<Bar>();
+
+        for (long i = Math.max(0, written - capacity); i < written; i++) {
+            final var position = position(i);
+            buffer.get(position, recordId);
+            if (!Arrays.equals(id, recordId) || buffer.getInt(position + INSTRUMENT_ID_SIZE) != interval.ordinal()) {
+                continue;
+            }
+            final var values = position + INSTRUMENT_ID_SIZE + 16;
+            result.add(Bar.of(
+                    buffer.getLong(position + INSTRUMENT_ID_SIZE + 8),
+                    getDecimal(values),
+                    getDecimal(values + DECIMAL_SIZE),
+                    getDecimal(values + 2 * DECIMAL_SIZE),
+                    getDecimal(values + 3 * DECIMAL_SIZE),
+                    getDecimal(values + 4 * DECIMAL_SIZE),
+                    getDecimal(values + 5 * DECIMAL_SIZE)));
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int position(long record) {
+        return Math.toIntExact(HEADER_SIZE + record % capacity * RECORD_SIZE);
+    }
+
+    // truncated ids could collide, so ids that do not fit the record are rejected
+    static boolean fits(String financialInstrumentId) {
+        return financialInstrumentId.getBytes(StandardCharsets.UTF_8).length <= INSTRUMENT_ID_SIZE;
+    }
+
+    private static byte[] encode(String financialInstrumentId) {
+        Validate.isTrue(fits(financialInstrumentId),
+                "financialInstrumentId=%s is longer than %d bytes", financialInstrumentId, INSTRUMENT_ID_SIZE);
+        return Arrays.copyOf(financialInstrumentId.getBytes(StandardCharsets.UTF_8), INSTRUMENT_ID_SIZE);
+    }
+
+    private void putDecimal(int position, BigDecimal value) {
+        final var rounded = value.round(DECIMAL_PRECISION);
+        buffer.putLong(position, rounded.unscaledValue().longValueExact());
+        buffer.putInt(position + 8, rounded.scale());
+    }
+
+    private BigDecimal getDecimal(int position) {
+        return BigDecimal.valueOf(buffer.getLong(position), buffer.getInt(position + 8));
+    }
+}
@@ -0,0 +1,14 @@
+package com.medvedev.vegatest.marketdata;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum BarInterval {
+    ONE_SECOND(1_000),
+    ONE_MINUTE(60_000),
+    ONE_HOUR(3_600_000);
+
+    private final long millis;
+}
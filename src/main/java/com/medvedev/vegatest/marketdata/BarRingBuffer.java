@@ -0,0 +1,80 @@
+package com.medvedev.vegatest.marketdata;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+// Fixed-size ring of bars for one instrument and interval, stored column-wise. Values stay exact like every other price and quantity
+class BarRingBuffer {
+    private final BarInterval interval;
+    private final long intervalMillis;
+    private final long[] startMillis;
+    private final BigDecimal[] open;
+    private final BigDecimal[] high;
+    private final BigDecimal[] low;
+    private final BigDecimal[] close;
+    private final BigDecimal[] volume;
+    private final BigDecimal[] turnover;
+    private int head = -1;
+    private int size;
+
+    BarRingBuffer(BarInterval interval, int capacity) {
+        this.interval = interval;
+        this.intervalMillis = interval.getMillis();
+        this.startMillis = new long[capacity];
+        this.open = new BigDecimal[capacity];
+        this.high = new BigDecimal[capacity];
+        this.low = new BigDecimal[capacity];
+        this.close = new BigDecimal[capacity];
+        this.volume = new BigDecimal[capacity];
+        this.turnover = new BigDecimal[capacity];
+    }
+
+    /**
+     * Adds a trade to the bar of its time bucket.
+     *
+     * @return the bar completed by this trade, or null if the trade went into the current bar
+     */
+    synchronized CompletedBar add(long timestampMillis, BigDecimal price, BigDecimal quantity, String financialInstrumentId) {
+        final var bucketStart = timestampMillis - Math.floorMod(timestampMillis, intervalMillis);
+
+        if (head >= 0 && bucketStart <= startMillis[head]) {
+            // trades racing over a bucket boundary are folded into the current bar
+            high[head] = high[head].max(price);
+            low[head] = low[head].min(price);
+            close[head] = price;
+            volume[head] = volume[head].add(quantity);
+            turnover[head] = turnover[head].add(price.multiply(quantity));
+            return null;
+        }
+
+        final var completedBar = head < 0 ? null : new CompletedBar(financialInstrumentId, interval, startMillis[head],
+                open[head], high[head], low[head], close[head], volume[head], turnover[head]);
+        head = (head + 1) % startMillis.length;
+        size = Math.min(size + 1, startMillis.length);
+        startMillis[head] = bucketStart;
+        open[head] = price;
+        high[head] = price;
+        low[head] = price;
+        close[head] = price;
+        volume[head] = quantity;
+        turnover[head] = price.multiply(quantity);
+        return completedBar;
+    }
+
+    /**
+     * @return up to {@code count} latest bars, oldest first, the last one possibly still open
+     */
+    synchronized List<Bar> latest(int count) {
+        final var resultSize = Math.min(count, size);
+        final var result = new ArrayList<Bar>(resultSize);
+        for (int i = resultSize - 1; i >= 0; i--) {
+            result.add(toBar(Math.floorMod(head - i, startMillis.length)));
+        }
+        return result;
+    }
+
+    private Bar toBar(int index) {
+        return Bar.of(startMillis[index], open[index], high[index], low[index], close[index], volume[index], turnover[index]);
+    }
+}
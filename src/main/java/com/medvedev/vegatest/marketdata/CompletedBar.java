@@ -0,0 +1,17 @@
+package com.medvedev.vegatest.marketdata;
+
+import java.math.BigDecimal;
+
+// bar that will not change anymore, waiting to be appended to the history file
+record CompletedBar(
+        String financialInstrumentId,
+        BarInterval interval,
+        long startMillis,
+        BigDecimal open,
+        BigDecimal high,
+        BigDecimal low,
+        BigDecimal close,
+        BigDecimal volume,
+        BigDecimal turnover
+) {
+}
@@ -0,0 +1,20 @@
+package com.medvedev.vegatest.marketdata;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * @param barsPerInterval number of bars kept in memory per instrument and interval
+ * @param historyFile     optional memory-mapped file completed bars are appended to
+ * @param historyCapacity number of bars the history file holds before wrapping around
+ */
+@ConfigurationProperties(prefix = "market-data")
+public record MarketDataProperties(
+        Integer barsPerInterval,
+        String historyFile,
+        Integer historyCapacity
+) {
+    public MarketDataProperties {
+        barsPerInterval = barsPerInterval == null ? 512 : barsPerInterval;
+        historyCapacity = historyCapacity == null ? 1_000_000 : historyCapacity;
+    }
+}
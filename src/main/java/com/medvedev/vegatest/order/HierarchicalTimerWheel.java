@@ -0,0 +1,136 @@
+package com.medvedev.vegatest.order;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timer wheel with O(1) scheduling and cancellation. Each level has {@code 2^WHEEL_BITS} buckets, a bucket
+ * of a higher level spans a full rotation of the level below it and is cascaded down when that rotation starts.
+ * With 4 levels of 256 buckets the wheel covers {@code 2^32} ticks, later deadlines wait in the last bucket.
+ */
+class HierarchicalTimerWheel<T> {
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+    private final Bucket<T>[][] buckets;
+    private long currentTick;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    HierarchicalTimerWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.buckets = new Bucket[LEVELS][WHEEL_SIZE];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                buckets[level][i] = new Bucket<>();
+            }
+        }
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Schedules the value to expire at the given time. Deadlines in the past expire on the next tick.
+     */
+    synchronized Timeout<T> schedule(long deadlineMillis, T value) {
+        final var deadlineTick = Math.max(Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis), currentTick + 1);
+        final var timeout = new Timeout<>(deadlineTick, value);
+        place(timeout);
+        return timeout;
+    }
+
+    synchronized void cancel(Timeout<T> timeout) {
+        if (timeout.bucket != null) {
+            timeout.bucket.unlink(timeout);
+        }
+    }
+
+    /**
+     * Advances the wheel up to the given time.
+     *
+     * @return values whose deadline has passed, in the order of their deadlines
+     */
+    synchronized List<T> advance(long nowMillis) {
+        final var targetTick = Math.floorDiv(nowMillis, tickMillis);
+        final var expired = new ArrayList<T>();
+        while (currentTick < targetTick) {
+            currentTick++;
+            for (int level = 1; level < LEVELS && (currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0; level++) {
+                cascade(buckets[level][(int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK)]);
+            }
+            final var bucket = buckets[0][(int) (currentTick & WHEEL_MASK)];
+            for (var timeout = bucket.head; timeout != null; timeout = bucket.head) {
+                bucket.unlink(timeout);
+                expired.add(timeout.value);
+            }
+        }
+        return expired;
+    }
+
+    private void cascade(Bucket<T> bucket) {
+        for (var timeout = bucket.head; timeout != null; timeout = bucket.head) {
+            bucket.unlink(timeout);
+            place(timeout);
+        }
+    }
+
+    private void place(Timeout<T> timeout) {
+        final var delta = timeout.deadlineTick - currentTick;
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (WHEEL_BITS * (level + 1))) {
+                buckets[level][(int) ((timeout.deadlineTick >>> (WHEEL_BITS * level)) & WHEEL_MASK)].link(timeout);
+                return;
+            }
+        }
+        // beyond the wheel range, park in the last bucket to be reached and re-place from there
+        final var lastLevel = LEVELS - 1;
+        final var parkingTick = currentTick + (1L << (WHEEL_BITS * LEVELS)) - 1;
+        buckets[lastLevel][(int) ((parkingTick >>> (WHEEL_BITS * lastLevel)) & WHEEL_MASK)].link(timeout);
+    }
+
+    static final class Timeout<T> {
+        private final long deadlineTick;
+        private final T value;
+        private Bucket<T> bucket;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+
+        private Timeout(long deadlineTick, T value) {
+            this.deadlineTick = deadlineTick;
+            this.value = value;
+        }
+
+        T value() {
+            return value;
+        }
+    }
+
+    private static final class Bucket<T> {
+        private Timeout<T> head;
+
+        void link(Timeout<T> timeout) {
+            timeout.bucket = this;
+            timeout.previous = null;
+            timeout.next = head;
+            if (head != null) {
+                head.previous = timeout;
+            }
+            head = timeout;
+        }
+
+        void unlink(Timeout<T> timeout) {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.medvedev.vegatest.order;
+
+import com.medvedev.vegatest.financialinstrument.CompositeFinancialInstrument;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsService;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Groups instruments whose books one matching run can touch. A composite shares its partition with its legs and with
+ * every other composite of those legs, so matching that cascades through composites and triggered stop orders never
+ * leaves the partition it started in and needs exactly one lock. Unrelated instruments match in parallel.
+ * <p>
+ * Partitions are built on first use. An instrument put later into {@link FinancialInstrumentsService} can connect
+ * partitions that were separate so far, they are then merged into one while all of them are locked.
+ */
+class MatchingPartitions {
+    private final FinancialInstrumentsService financialInstrumentsService;
+    private final Map<String, Partition> partitionPerInstrumentId;
+    private long nextPartitionId;
+
+    MatchingPartitions(FinancialInstrumentsService financialInstrumentsService) {
+        this.financialInstrumentsService = financialInstrumentsService;
+        this.partitionPerInstrumentId = new ConcurrentHashMap<>();
+        financialInstrumentsService.onPut(instrument -> join(instrument.getId()));
+    }
+
+    /**
+     * @return current partition of the instrument, it may be merged into another one before it is locked, use
+     * {@link #lock} to mutate the book
+     */
+    Partition get(String financialInstrumentId) {
+        final var partition = partitionPerInstrumentId.get(financialInstrumentId);
+        return partition == null ? join(financialInstrumentId) : partition;
+    }
+
+    /**
+     * @return locked partition of the instrument, to be unlocked by the caller
+     */
+    Partition lock(String financialInstrumentId) {
+        while (true) {
+            final var partition = get(financialInstrumentId);
+            partition.lock();
+            if (!partition.retired) {
+                return partition;
+            }
+            // merged away while we were waiting, its instruments are now in another partition
+            partition.unlock();
+        }
+    }
+
+    // assigns everything reachable from the instrument to one partition, merging the partitions it already had
+    private Partition join(String financialInstrumentId) {
+        while (true) {
+            final var reachedInstrumentIds = reach(financialInstrumentId);
+            final var reachedPartitions = new TreeSet<Partition>(Comparator.comparingLong(partition -> partition.id));
+            var unassigned = false;
+            for (final var instrumentId : reachedInstrumentIds) {
+                final var partition = partitionPerInstrumentId.get(instrumentId);
+                if (partition == null) {
+                    unassigned = true;
+                } else {
+                    reachedPartitions.add(partition);
+                }
+            }
+            if (!unassigned && reachedPartitions.size() == 1) {
+                return reachedPartitions.first();
+            }
+
+            // partitions are always locked in the order of their ids, so concurrent joins can not deadlock
+            reachedPartitions.forEach(Partition::lock);
+            try {
+                final var merged = merge(reachedInstrumentIds, reachedPartitions);
+                if (merged != null) {
+                    return merged;
+                }
+            } finally {
+                reachedPartitions.forEach(Partition::unlock);
+            }
+        }
+    }
+
+    // null if another join changed any of the partitions meanwhile, the caller retries
+    private synchronized Partition merge(Set<String> instrumentIds, Set<Partition> partitions) {
+        for (final var instrumentId : instrumentIds) {
+            final var partition = partitionPerInstrumentId.get(instrumentId);
+            if (partition != null && !partitions.contains(partition)) {
+                return null;
+            }
+        }
+        if (partitions.stream().anyMatch(partition -> partition.retired)) {
+            return null;
+        }
+
+        final var target = partitions.isEmpty() ? new Partition(nextPartitionId++) : partitions.iterator().next();
+        for (final var partition : partitions) {
+            if (partition != target) {
+                partition.instrumentIds.forEach(instrumentId -> partitionPerInstrumentId.put(instrumentId, target));
+                target.instrumentIds.addAll(partition.instrumentIds);
+                partition.instrumentIds.clear();
+                partition.retired = true;
+            }
+        }
+        for (final var instrumentId : instrumentIds) {
+            if (partitionPerInstrumentId.putIfAbsent(instrumentId, target) == null) {
+                target.instrumentIds.add(instrumentId);
+            }
+        }
+        return target;
+    }
+
+    // walks legs and dependent composites
+    private Set<String> reach(String financialInstrumentId) {
+        final var reached = new HashSet<String>();
+        final var pending = new ArrayDeque<String>();
+        pending.add(financialInstrumentId);
+        while (!pending.isEmpty()) {
+            final var instrumentId = pending.poll();
+            if (!reached.add(instrumentId)) {
+                continue;
+            }
+            pending.addAll(financialInstrumentsService.findDependentCompositeInstruments(instrumentId));
+            if (financialInstrumentsService.get(instrumentId) instanceof CompositeFinancialInstrument composite) {
+                composite.getChildInstruments().forEach(child -> pending.add(child.getId()));
+            }
+        }
+        return reached;
+    }
+
+    static final class Partition {
+        private final long id;
+        private final ReentrantLock lock = new ReentrantLock();
+        // stop orders triggered while matching, placed by the same lock holder before it unlocks
+        private final Queue<Order> triggeredStopOrders = new ArrayDeque<>();
+        // guarded by MatchingPartitions
+        private final List<String> instrumentIds = new ArrayList<>();
+        // set under the lock once the partition is merged into another one
+        private boolean retired;
+
+        private Partition(long id) {
+            this.id = id;
+        }
+
+        void lock() {
+            lock.lock();
+        }
+
+        void unlock() {
+            lock.unlock();
+        }
+
+        Queue<Order> triggeredStopOrders() {
+            return triggeredStopOrders;
+        }
+    }
+}
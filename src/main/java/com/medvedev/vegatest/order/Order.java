@@ -3,38 +3,100 @@ package com.medvedev.vegatest.order;
 import lombok.Data;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.concurrent.atomic.AtomicReference;
 
 @Data
 public class Order {
     private String id;
     private String financialInstrumentId;
+    // required, risk limits and self-trade prevention are applied per trader
     private String traderId;
     private BigDecimal price;
-    private AtomicReference<BigDecimal> quantity;
+    // displayed and hidden quantity are swapped together, so that readers never see an iceberg halfway through a refresh
+    private AtomicReference<Quantity> quantity;
     private Type type;
+    // set for stop and stop-limit orders, which rest in the trigger book until the instrument price reaches it
+    private BigDecimal stopPrice;
+    // set for iceberg orders: quantity is the displayed peak, the rest is kept in the hidden reserve
+    private BigDecimal displayQuantity;
+    // null is treated as good-till-cancelled
+    private TimeInForce timeInForce;
+    // required for GTD, set by the order book for DAY orders
+    private Instant expireTime;
+    // time priority within a price level, assigned by the order book and renewed when the order is requeued
+    private volatile long sequence;
 
     public Order(String id, String financialInstrumentId, String traderId, BigDecimal price, BigDecimal quantity, Type type) {
         this.id = id;
         this.financialInstrumentId = financialInstrumentId;
         this.traderId = traderId;
         this.price = price;
-        this.quantity = new AtomicReference<>(quantity);
+        this.quantity = new AtomicReference<>(new Quantity(quantity, null));
         this.type = type;
     }
 
     public void setQuantity(BigDecimal quantity) {
-        this.quantity = new AtomicReference<>(quantity);
+        this.quantity = new AtomicReference<>(new Quantity(quantity, null));
     }
 
     public BigDecimal getQuantity() {
-        return quantity == null ? null : quantity.get();
+        return quantity == null ? null : quantity.get().displayed();
+    }
+
+    public BigDecimal getReserveQuantity() {
+        return quantity == null ? null : quantity.get().reserve();
     }
 
     public void subtractQuantity(BigDecimal amount) {
-        quantity.getAndUpdate(prev -> prev.subtract(amount));
+        quantity.getAndUpdate(prev -> new Quantity(prev.displayed().subtract(amount), prev.reserve()));
+    }
+
+    // Detached copy for read paths, so that callers never observe or mutate live book state.
+    // The hidden reserve of an iceberg is left out, readers only see the displayed peak
+    public Order snapshot() {
+        final var snapshot = new Order(id, financialInstrumentId, traderId, price, quantity.get().displayed(), type);
+        snapshot.setStopPrice(stopPrice);
+        snapshot.setDisplayQuantity(displayQuantity);
+        snapshot.setTimeInForce(timeInForce);
+        snapshot.setExpireTime(expireTime);
+        snapshot.setSequence(sequence);
+        return snapshot;
+    }
+
+
+    /**
+     * @return displayed and hidden quantity together
+     */
+    public BigDecimal getOpenQuantity() {
+        final var current = quantity.get();
+        return current.reserve() == null ? current.displayed() : current.displayed().add(current.reserve());
+    }
+
+    public boolean hasReserve() {
+        final var reserve = getReserveQuantity();
+        return reserve != null && reserve.signum() > 0;
     }
 
+    // splits the full quantity of a new iceberg order into the displayed peak and the hidden reserve
+    void hideReserve() {
+        quantity.getAndUpdate(prev -> {
+            final var peak = displayQuantity.min(prev.displayed());
+            return new Quantity(peak, prev.displayed().subtract(peak));
+        });
+    }
+
+    // moves the next peak from the hidden reserve to the displayed quantity
+    void replenish() {
+        quantity.getAndUpdate(prev -> {
+            final var peak = displayQuantity.min(prev.reserve());
+            return new Quantity(prev.displayed().add(peak), prev.reserve().subtract(peak));
+        });
+    }
+
+    public boolean isExpiring() {
+        return timeInForce == TimeInForce.DAY || timeInForce == TimeInForce.GTD;
+    }
 
     public enum Type {
         BUY, SELL;
@@ -43,4 +105,12 @@ public class Order {
             return this == BUY ? SELL : BUY;
         }
     }
+
+    public enum TimeInForce {
+        GTC, DAY, GTD
+    }
+
+    // reserve is null for plain orders
+    private record Quantity(BigDecimal displayed, BigDecimal reserve) {
+    }
 }
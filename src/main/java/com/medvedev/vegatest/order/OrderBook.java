@@ -2,20 +2,35 @@ package com.medvedev.vegatest.order;
 
 import com.medvedev.vegatest.exception.DuplicateEntryException;
 import com.medvedev.vegatest.financialinstrument.CompositeFinancialInstrument;
+import com.medvedev.vegatest.financialinstrument.FairValue;
 import com.medvedev.vegatest.financialinstrument.FinancialInstrument;
 import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsService;
+import com.medvedev.vegatest.marketdata.BarAggregator;
+import com.medvedev.vegatest.risk.PreTradeRiskCheck;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @Slf4j
@@ -23,18 +38,46 @@ public class OrderBook {
     private final Map<String, ConcurrentSkipListSet<Order>> buyOrders;
     private final Map<String, ConcurrentSkipListSet<Order>> sellOrders;
     private final Map<String, Order> allOrders;
+    private final OrderIndex ordersPerTraderId;
+    private final OrderIndex ordersPerFinancialInstrumentId;
+    private final StopOrderBook stopOrderBook;
     private final Map<Order.Type, Map<String, ConcurrentSkipListSet<Order>>> orderBookPerType;
     private final Map<Order.Type, Comparator<Order>> orderBookSortingPerType;
     private final OrderValidator validator;
+    private final PreTradeRiskCheck riskCheck;
     private final FinancialInstrumentsService financialInstrumentsService;
-
-    public OrderBook(OrderValidator validator, FinancialInstrumentsService financialInstrumentsService) {
+    private final BarAggregator barAggregator;
+    private final SelfTradePreventionMode selfTradePrevention;
+    private final AtomicLong sequenceGenerator;
+    private final HierarchicalTimerWheel<Order> expiryWheel;
+    private final Map<String, HierarchicalTimerWheel.Timeout<Order>> expiryTimeoutPerOrderId;
+    private final LocalTime dayEndTime;
+    private final ZoneId timeZone;
+    private final Clock clock;
+    // every mutation runs under the lock of the partition of its instrument; reads of the indexes stay lock-free
+    private final MatchingPartitions partitions;
+
+    public OrderBook(OrderValidator validator, PreTradeRiskCheck riskCheck, FinancialInstrumentsService financialInstrumentsService,
+                     BarAggregator barAggregator, OrderBookProperties properties, Clock clock) {
         this.validator = validator;
+        this.riskCheck = riskCheck;
         this.financialInstrumentsService = financialInstrumentsService;
+        this.barAggregator = barAggregator;
+        this.selfTradePrevention = properties.selfTradePrevention();
+        this.sequenceGenerator = new AtomicLong();
+        this.expiryWheel = new HierarchicalTimerWheel<>(properties.expiryTickMillis(), clock.millis());
+        this.expiryTimeoutPerOrderId = new ConcurrentHashMap<>();
+        this.dayEndTime = LocalTime.parse(properties.dayEndTime());
+        this.timeZone = properties.timeZone();
+        this.clock = clock;
+        this.partitions = new MatchingPartitions(financialInstrumentsService);
 
         this.buyOrders = new ConcurrentHashMap<>();
         this.sellOrders = new ConcurrentHashMap<>();
         this.allOrders = new ConcurrentHashMap<>();
+        this.ordersPerTraderId = new OrderIndex(Order::getTraderId);
+        this.ordersPerFinancialInstrumentId = new OrderIndex(Order::getFinancialInstrumentId);
+        this.stopOrderBook = new StopOrderBook();
 
         this.orderBookPerType = Map.of(
                 Order.Type.BUY, buyOrders,
@@ -42,22 +85,207 @@ public class OrderBook {
         );
 
         this.orderBookSortingPerType = Map.of(
-                Order.Type.BUY, Comparator.comparing(Order::getPrice, Comparator.nullsLast(BigDecimal::compareTo)).reversed(),
-                Order.Type.SELL, Comparator.comparing(Order::getPrice, Comparator.nullsFirst(BigDecimal::compareTo))
+                Order.Type.BUY, Comparator.comparing(Order::getPrice, Comparator.nullsLast(BigDecimal::compareTo)).reversed().thenComparingLong(Order::getSequence),
+                Order.Type.SELL, Comparator.comparing(Order::getPrice, Comparator.nullsFirst(BigDecimal::compareTo)).thenComparingLong(Order::getSequence)
         );
     }
 
     public void addOrder(Order order) {
         final var orderId = order.getId();
 
-        allOrders.compute(orderId, (key, value) -> {
-            if (value != null) {
+        // validation and risk checks run before the order is published, so no map bin is locked while they query instruments
+        validator.validate(order);
+        riskCheck.check(order);
+
+        final var partition = partitions.lock(order.getFinancialInstrumentId());
+        try {
+            if (allOrders.putIfAbsent(orderId, order) != null) {
+                riskCheck.rollback(order);
                 throw new DuplicateEntryException("orderId=%s already exists".formatted(orderId));
             }
-            validator.validate(order);
-            return order;
-        });
+            order.setSequence(sequenceGenerator.incrementAndGet());
+            if (order.getDisplayQuantity() != null) {
+                order.hideReserve();
+            }
+            // the expire time of DAY orders is set before the order becomes visible to readers
+            scheduleExpiry(order);
+            addToIndexes(order);
+
+            if (order.getStopPrice() != null) {
+                stopOrderBook.add(order);
+                log.info("Created new stop order: {}", order);
+                // the stop may already be reached by the current price
+                updateFinancialInstrument(order.getFinancialInstrumentId());
+            } else {
+                log.info("Created new order: {}", order);
+                placeOrder(order);
+            }
+            placeTriggeredStopOrders(partition);
+        } finally {
+            partition.unlock();
+        }
+    }
+
+    public void cancelOrder(String orderId) {
+        final var order = allOrders.get(orderId);
+        if (order == null) {
+            return;
+        }
+
+        final var partition = partitions.lock(order.getFinancialInstrumentId());
+        try {
+            if (removeOrder(order)) {
+                updateFinancialInstrument(order.getFinancialInstrumentId());
+                placeTriggeredStopOrders(partition);
+            }
+        } finally {
+            partition.unlock();
+        }
+    }
+
+    /**
+     * Cancels every open order of the trader, publishing one price update per affected instrument. Partitions are
+     * cancelled one after another, so orders the trader adds meanwhile to an already cancelled partition stay open.
+     *
+     * @return number of cancelled orders
+     */
+    public int cancelAllByTraderId(String traderId) {
+        final var affectedInstrumentIds = new LinkedHashSet<String>();
+        final var cancelled = removeOrders(ordersPerTraderId.get(traderId), affectedInstrumentIds);
+        log.info("Cancelled {} orders of traderId={} in instruments {}", cancelled, traderId, affectedInstrumentIds);
+        return cancelled;
+    }
+
+    /**
+     * Cancels every open order of the instrument, including stop orders that were not triggered yet.
+     *
+     * @return number of cancelled orders
+     */
+    public int cancelAllByFinancialInstrumentId(String financialInstrumentId) {
+        final var partition = partitions.lock(financialInstrumentId);
+        try {
+            final var orders = detachInstrument(financialInstrumentId);
+            ordersPerTraderId.removeAll(orders);
+            riskCheck.releaseAll(orders);
+            updateFinancialInstrument(financialInstrumentId);
+            placeTriggeredStopOrders(partition);
+            log.info("Cancelled {} orders of financialInstrumentId={}", orders.size(), financialInstrumentId);
+            return orders.size();
+        } finally {
+            partition.unlock();
+        }
+    }
+
+    /**
+     * Kill switch: cancels every open order in the book. Each partition is locked only while its own instruments are
+     * cancelled, so matching elsewhere is not stopped for the whole run. The trader index is cleaned up once at the end,
+     * until then trader pages may still list orders that are already cancelled.
+     *
+     * @return number of cancelled orders
+     */
+    public int cancelAll() {
+        final var affectedInstrumentIds = ordersPerFinancialInstrumentId.keys();
+        final var instrumentIdsPerPartition = new LinkedHashMap<MatchingPartitions.Partition, List<String>>();
+        for (final var instrumentId : affectedInstrumentIds) {
+            instrumentIdsPerPartition.computeIfAbsent(partitions.get(instrumentId), k -> new ArrayList<>()).add(instrumentId);
+        }
+
+        var cancelled = 0;
+        for (final var entry : instrumentIdsPerPartition.entrySet()) {
+            // a partition merged meanwhile is locked through the one that absorbed it
+            final var partition = partitions.lock(entry.getValue().get(0));
+            try {
+                final var orders = new ArrayList<Order>();
+                entry.getValue().forEach(instrumentId -> orders.addAll(detachInstrument(instrumentId)));
+                riskCheck.releaseAll(orders);
+                entry.getValue().forEach(this::updateFinancialInstrument);
+                placeTriggeredStopOrders(partition);
+                cancelled += orders.size();
+            } finally {
+                partition.unlock();
+            }
+        }
+        // one pass over the trader index, instead of a removal per order of every partition
+        ordersPerTraderId.retainAll(order -> allOrders.get(order.getId()) == order);
+        log.info("Cancelled {} orders of all traders in instruments {}", cancelled, affectedInstrumentIds);
+        return cancelled;
+    }
+
+    // detaches every order of the instrument, dropping its books and index entry whole instead of emptying them order by order.
+    // The orders stay in the trader index, the caller removes them in one batch
+    private List<Order> detachInstrument(String financialInstrumentId) {
+        final var detachedOrders = new ArrayList<Order>();
+        for (final var order : ordersPerFinancialInstrumentId.removeAll(financialInstrumentId)) {
+            if (allOrders.remove(order.getId(), order)) {
+                cancelExpiry(order);
+                detachedOrders.add(order);
+            }
+        }
+        stopOrderBook.removeAll(financialInstrumentId);
+        buyOrders.remove(financialInstrumentId);
+        sellOrders.remove(financialInstrumentId);
+        return detachedOrders;
+    }
+
+    /**
+     * Removes DAY and GTD orders whose expire time has passed, publishing one price update per affected instrument.
+     */
+    @Scheduled(fixedDelayString = "${order-book.expiry-tick-millis:100}")
+    public void expireOrders() {
+        final var expiredOrders = expiryWheel.advance(clock.millis());
+        if (expiredOrders.isEmpty()) {
+            return;
+        }
+
+        final var affectedInstrumentIds = new LinkedHashSet<String>();
+        removeOrders(expiredOrders, affectedInstrumentIds);
+        log.info("Expired {} orders of instruments {}", expiredOrders.size(), affectedInstrumentIds);
+    }
+
+    // removes the orders partition by partition, each one is repriced and has its triggered stops placed before it is unlocked
+    private int removeOrders(List<Order> orders, Set<String> affectedInstrumentIds) {
+        final var ordersPerPartition = new LinkedHashMap<MatchingPartitions.Partition, List<Order>>();
+        orders.forEach(order -> ordersPerPartition.computeIfAbsent(partitions.get(order.getFinancialInstrumentId()), k -> new ArrayList<>()).add(order));
+
+        var removed = 0;
+        for (final var entry : ordersPerPartition.entrySet()) {
+            // a partition merged meanwhile is locked through the one that absorbed it
+            final var partition = partitions.lock(entry.getValue().get(0).getFinancialInstrumentId());
+            try {
+                final var partitionInstrumentIds = new LinkedHashSet<String>();
+                for (final var order : entry.getValue()) {
+                    if (removeOrder(order)) {
+                        partitionInstrumentIds.add(order.getFinancialInstrumentId());
+                        removed++;
+                    }
+                }
+                partitionInstrumentIds.forEach(this::updateFinancialInstrument);
+                placeTriggeredStopOrders(partition);
+                affectedInstrumentIds.addAll(partitionInstrumentIds);
+            } finally {
+                partition.unlock();
+            }
+        }
+        return removed;
+    }
 
+    private void scheduleExpiry(Order order) {
+        if (!order.isExpiring()) {
+            return;
+        }
+        if (order.getTimeInForce() == Order.TimeInForce.DAY) {
+            order.setExpireTime(endOfTradingDay());
+        }
+        expiryTimeoutPerOrderId.put(order.getId(), expiryWheel.schedule(order.getExpireTime().toEpochMilli(), order));
+    }
+
+    private Instant endOfTradingDay() {
+        final var now = ZonedDateTime.now(clock.withZone(timeZone));
+        final var dayEnd = now.with(dayEndTime);
+        return (dayEnd.isAfter(now) ? dayEnd : dayEnd.plusDays(1)).toInstant();
+    }
+
+    private void placeOrder(Order order) {
         final var instrumentId = order.getFinancialInstrumentId();
 
         orderBookPerType.get(order.getType())
@@ -65,35 +293,64 @@ public class OrderBook {
                         instrumentId,
                         k -> new ConcurrentSkipListSet<>(orderBookSortingPerType.get(order.getType())))
                 .add(order);
-        log.info("Created new order: {}", order);
         updateFinancialInstrument(instrumentId);
-        processOrderBook(instrumentId);
+        matchOrderBook(instrumentId);
         financialInstrumentsService.findDependentCompositeInstruments(instrumentId)
-                .forEach(this::processOrderBook);
+                .forEach(this::matchOrderBook);
     }
 
-    public void cancelOrder(String orderId) {
-        removeOrder(orderId);
+    // triggered orders are collected while matching and placed afterwards, so that matching never re-enters itself
+    private void placeTriggeredStopOrders(MatchingPartitions.Partition partition) {
+        Order order;
+        while ((order = partition.triggeredStopOrders().poll()) != null) {
+            if (allOrders.get(order.getId()) == order) {
+                // a triggered order enters the book as a new arrival, behind the orders already resting at its price
+                order.setSequence(sequenceGenerator.incrementAndGet());
+                log.info("Triggered stop order: {}", order);
+                placeOrder(order);
+            }
+        }
+    }
+
+    /**
+     * Pages are read without blocking matching, so they are weakly consistent, see {@link OrderIndex#find}.
+     */
+    public OrderPage findOrdersByTraderId(String traderId, String pageToken, int pageSize) {
+        Validate.isTrue(pageSize > 0, "pageSize must be positive");
+        return ordersPerTraderId.find(traderId, pageToken, pageSize);
+    }
+
+    public OrderPage findOrdersByFinancialInstrumentId(String financialInstrumentId, String pageToken, int pageSize) {
+        Validate.isTrue(pageSize > 0, "pageSize must be positive");
+        return ordersPerFinancialInstrumentId.find(financialInstrumentId, pageToken, pageSize);
     }
 
     // can be also configured as scheduled job
     public void processOrderBook(String instrumentId) {
+        final var partition = partitions.lock(instrumentId);
+        try {
+            matchOrderBook(instrumentId);
+            placeTriggeredStopOrders(partition);
+        } finally {
+            partition.unlock();
+        }
+    }
+
+    private void matchOrderBook(String instrumentId) {
+        if (isComposite(instrumentId)) {
+            matchCompositeOrderBook(instrumentId);
+            return;
+        }
         while (canProcess(instrumentId)) {
-            final var buyQueue = buyOrders.get(instrumentId);
-            final var sellQueue = sellOrders.get(instrumentId);
-            final var buyOrder = buyQueue.first();
-            if (isComposite(buyOrder.getFinancialInstrumentId())) {
-                processCompositeOrder(buyOrder);
-                return;
-            }
-            final var sellOrder = sellQueue.first();
-            if (isComposite(sellOrder.getFinancialInstrumentId())) {
-                processCompositeOrder(sellOrder);
-                return;
-            }
+            final var buyOrder = buyOrders.get(instrumentId).first();
+            final var sellOrder = sellOrders.get(instrumentId).first();
 
             if (buyOrder.getPrice() == null || sellOrder.getPrice() == null || buyOrder.getPrice().compareTo(sellOrder.getPrice()) >= 0) {
-                executeTrade(buyOrder, sellOrder, buyOrder.getQuantity().min(sellOrder.getQuantity()));
+                if (isSelfTrade(buyOrder, sellOrder)) {
+                    preventSelfTrade(buyOrder, sellOrder);
+                } else {
+                    executeTrade(buyOrder, sellOrder, buyOrder.getQuantity().min(sellOrder.getQuantity()));
+                }
             } else {
                 return;
             }
@@ -101,44 +358,61 @@ public class OrderBook {
     }
 
     private boolean canProcess(String instrumentId) {
-        final var buyQueue = buyOrders.get(instrumentId);
-        final var sellQueue = sellOrders.get(instrumentId);
-        if (isComposite(instrumentId)) {
-            return CollectionUtils.isNotEmpty(sellQueue) || CollectionUtils.isNotEmpty(buyQueue);
+        return CollectionUtils.isNotEmpty(sellOrders.get(instrumentId)) && CollectionUtils.isNotEmpty(buyOrders.get(instrumentId));
+    }
+
+    // composite orders never match each other, each side is matched against the legs until its head order stays in the book
+    private void matchCompositeOrderBook(String instrumentId) {
+        for (final var ordersPerInstrumentId : List.of(buyOrders, sellOrders)) {
+            final var orders = ordersPerInstrumentId.get(instrumentId);
+            while (CollectionUtils.isNotEmpty(orders) && processCompositeOrder(orders.first())) {
+                // the head order was filled or cancelled, the next one may match as well
+            }
         }
-        return CollectionUtils.isNotEmpty(sellQueue) && CollectionUtils.isNotEmpty(buyQueue);
     }
 
-    private void processCompositeOrder(Order compositeOrder) {
+    /**
+     * @return true if the composite order left the book, so the next order of the same side may match as well
+     */
+    private boolean processCompositeOrder(Order compositeOrder) {
         final var oppositeOrderBook = orderBookPerType.get(compositeOrder.getType().getOpposite());
         final var financialInstrument = (CompositeFinancialInstrument) financialInstrumentsService.get(compositeOrder.getFinancialInstrumentId());
 
-        final var underlyingFinancialInstrumentsQueues = financialInstrument.getChildInstruments()
+        final var underlyingFinancialInstrumentIds = financialInstrument.getChildInstruments()
                 .stream()
                 .map(FinancialInstrument::getId)
-                .map(oppositeOrderBook::get)
                 .toList();
 
-        while (underlyingFinancialInstrumentsQueues.stream().noneMatch(ConcurrentSkipListSet::isEmpty)) {
-            final var singleOppositeOrders = underlyingFinancialInstrumentsQueues.stream()
+        while (underlyingFinancialInstrumentIds.stream().map(oppositeOrderBook::get).allMatch(CollectionUtils::isNotEmpty)) {
+            final var singleOppositeOrders = underlyingFinancialInstrumentIds.stream()
+                    .map(oppositeOrderBook::get)
                     .map(ConcurrentSkipListSet::first)
                     .toList();
 
+            // the composite order takes part in the trade as well, so it caps the quantity
             final var minQuantity = singleOppositeOrders
                     .stream()
                     .map(Order::getQuantity)
-                    .reduce(BigDecimal::min)
-                    .orElseThrow();
+                    .reduce(compositeOrder.getQuantity(), BigDecimal::min);
 
-            if (compositeOrderConditionMatches(compositeOrder, singleOppositeOrders)) {
+            if (!compositeOrderConditionMatches(compositeOrder, financialInstrument.getFairValue())) {
+                return false;
+            }
+            final var selfTradeOrder = findSelfTradeOrder(compositeOrder, singleOppositeOrders);
+            if (selfTradeOrder == null) {
                 executeCompositeTrade(compositeOrder, singleOppositeOrders, minQuantity);
             } else {
-                return;
+                preventSelfTrade(compositeOrder, selfTradeOrder);
+            }
+            if (allOrders.get(compositeOrder.getId()) != compositeOrder) {
+                return true;
             }
         }
+        return false;
     }
 
-    private boolean compositeOrderConditionMatches(Order compositeOrder, List<Order> singleOppositeOrders) {
+    // the fair value is kept up to date with the top of book of the legs, so the check does not walk the legs
+    private boolean compositeOrderConditionMatches(Order compositeOrder, FairValue fairValue) {
         if (compositeOrder.getPrice() == null) {
             return true; // assume that user wants to buy or sell for any price
         }
@@ -146,10 +420,10 @@ public class OrderBook {
             return false;
         }
 
-        final var singleOppositeOrdersCommonPrice = singleOppositeOrders
-                .stream()
-                .map(Order::getPrice)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        final var singleOppositeOrdersCommonPrice = compositeOrder.getType() == Order.Type.BUY ? fairValue.ask() : fairValue.bid();
+        if (singleOppositeOrdersCommonPrice == null) {
+            return false; // some leg has no priced order to trade with
+        }
 
         final var priceComparisonResult = compositeOrder.getPrice().compareTo(singleOppositeOrdersCommonPrice);
         return compositeOrder.getType() == Order.Type.BUY
@@ -158,12 +432,18 @@ public class OrderBook {
     }
 
     private void executeTrade(Order buyOrder, Order sellOrder, BigDecimal quantity) {
+        // taken before cleanup, since refreshing an iceberg peak renews its sequence
+        final var price = executionPrice(buyOrder, sellOrder);
+
         buyOrder.subtractQuantity(quantity); // for simplicity I just subtract quantities
         sellOrder.subtractQuantity(quantity);
+        riskCheck.release(buyOrder, quantity);
+        riskCheck.release(sellOrder, quantity);
 
         cleanup(buyOrder);
         cleanup(sellOrder);
 
+        recordTrade(buyOrder.getFinancialInstrumentId(), price, quantity);
         updateFinancialInstrument(buyOrder.getFinancialInstrumentId());
 
         log.info("Executed trade: buyOrder={}, sellOrder={}", buyOrder, sellOrder);
@@ -172,26 +452,111 @@ public class OrderBook {
     private void executeCompositeTrade(Order compositeOrder, List<Order> singleOrders, BigDecimal quantity) {
         compositeOrder.subtractQuantity(quantity);
         singleOrders.forEach(order -> order.subtractQuantity(quantity));
+        riskCheck.release(compositeOrder, quantity);
+        singleOrders.forEach(order -> riskCheck.release(order, quantity));
 
         cleanup(compositeOrder);
         singleOrders.forEach(this::cleanup);
 
+        var compositePrice = BigDecimal.ZERO;
+        for (final var order : singleOrders) {
+            recordTrade(order.getFinancialInstrumentId(), order.getPrice(), quantity);
+            compositePrice = compositePrice == null || order.getPrice() == null ? null : compositePrice.add(order.getPrice());
+        }
+        recordTrade(compositeOrder.getFinancialInstrumentId(), ObjectUtils.firstNonNull(compositePrice, compositeOrder.getPrice()), quantity);
+
         updateFinancialInstrument(compositeOrder.getFinancialInstrumentId());
         singleOrders.forEach(order -> updateFinancialInstrument(order.getFinancialInstrumentId()));
 
         log.info("Executed composite trade: compositeOrder={}, singleOrders={}", compositeOrder, singleOrders);
     }
 
+    // trades execute at the price of the resting order, an order without price takes the price of the opposite one
+    private BigDecimal executionPrice(Order buyOrder, Order sellOrder) {
+        final var restingOrder = buyOrder.getSequence() < sellOrder.getSequence() ? buyOrder : sellOrder;
+        final var incomingOrder = restingOrder == buyOrder ? sellOrder : buyOrder;
+        return ObjectUtils.firstNonNull(restingOrder.getPrice(), incomingOrder.getPrice());
+    }
+
+    // the fills are already applied, so a failing bar update must not leave the book without its price update
+    private void recordTrade(String financialInstrumentId, BigDecimal price, BigDecimal quantity) {
+        if (price == null) {
+            return;
+        }
+        try {
+            barAggregator.onTrade(financialInstrumentId, price, quantity);
+        } catch (RuntimeException e) {
+            log.error("Can not record trade of financialInstrumentId={} in bars", financialInstrumentId, e);
+        }
+    }
+
+    // both orders are already at hand while walking the book, so the check is a plain field comparison
+    private boolean isSelfTrade(Order order, Order oppositeOrder) {
+        return selfTradePrevention != SelfTradePreventionMode.NONE
+                && order.getTraderId() != null
+                && order.getTraderId().equals(oppositeOrder.getTraderId());
+    }
+
+    private Order findSelfTradeOrder(Order compositeOrder, List<Order> singleOppositeOrders) {
+        for (final var order : singleOppositeOrders) {
+            if (isSelfTrade(compositeOrder, order)) {
+                return order;
+            }
+        }
+        return null;
+    }
+
+    private void preventSelfTrade(Order order, Order oppositeOrder) {
+        final var newest = order.getSequence() > oppositeOrder.getSequence() ? order : oppositeOrder;
+        final var oldest = newest == order ? oppositeOrder : order;
+
+        switch (selfTradePrevention) {
+            case CANCEL_NEWEST -> removeOrder(newest);
+            case CANCEL_OLDEST -> removeOrder(oldest);
+            case DECREMENT_BOTH -> {
+                final var quantity = order.getQuantity().min(oppositeOrder.getQuantity());
+                order.subtractQuantity(quantity);
+                oppositeOrder.subtractQuantity(quantity);
+                riskCheck.release(order, quantity);
+                riskCheck.release(oppositeOrder, quantity);
+                cleanup(order);
+                cleanup(oppositeOrder);
+            }
+            default -> throw new IllegalStateException("Unexpected self trade prevention mode %s".formatted(selfTradePrevention));
+        }
+
+        updateFinancialInstrument(order.getFinancialInstrumentId());
+        if (!order.getFinancialInstrumentId().equals(oppositeOrder.getFinancialInstrumentId())) {
+            updateFinancialInstrument(oppositeOrder.getFinancialInstrumentId());
+        }
+
+        log.info("Prevented self trade: mode={}, order={}, oppositeOrder={}", selfTradePrevention, order, oppositeOrder);
+    }
+
     private boolean isComposite(String financialInstrumentId) {
         return financialInstrumentsService.get(financialInstrumentId) instanceof CompositeFinancialInstrument;
     }
 
     private void cleanup(Order order) {
         if (order.getQuantity().compareTo(BigDecimal.ZERO) == 0) {
-            removeOrder(order.getId());
+            if (order.hasReserve()) {
+                replenish(order);
+            } else {
+                removeOrder(order);
+            }
         }
     }
 
+    // a refreshed iceberg peak loses its time priority and goes to the back of its price level
+    private void replenish(Order order) {
+        final var orders = orderBookPerType.get(order.getType()).get(order.getFinancialInstrumentId());
+        orders.remove(order);
+        order.replenish();
+        order.setSequence(sequenceGenerator.incrementAndGet());
+        orders.add(order);
+        log.info("Replenished iceberg order: {}", order);
+    }
+
     private void updateFinancialInstrument(String financialInstrumentId) {
         final var instrumentBuyOrders = buyOrders.get(financialInstrumentId);
         final var instrumentSellOrders = sellOrders.get(financialInstrumentId);
@@ -200,6 +565,15 @@ public class OrderBook {
 
         var newPrice = buyPrice.add(sellPrice).divide(BigDecimal.valueOf(2), RoundingMode.HALF_EVEN);
         financialInstrumentsService.updatePrice(financialInstrumentId, newPrice);
+        financialInstrumentsService.updateTopOfBook(financialInstrumentId, topPrice(instrumentBuyOrders), topPrice(instrumentSellOrders));
+
+        if (newPrice.signum() > 0) { // zero means there is no market to trigger on
+            partitions.get(financialInstrumentId).triggeredStopOrders().addAll(stopOrderBook.trigger(financialInstrumentId, newPrice));
+        }
+    }
+
+    private static BigDecimal topPrice(ConcurrentSkipListSet<Order> instrumentOrders) {
+        return CollectionUtils.isEmpty(instrumentOrders) ? null : instrumentOrders.first().getPrice();
     }
 
     private BigDecimal determinePrice(ConcurrentSkipListSet<Order> instrumentOrders, ConcurrentSkipListSet<Order> instrumentOppositeOrders) {
@@ -216,9 +590,11 @@ public class OrderBook {
 
     }
 
-    private void removeOrder(String orderId) {
-        final var order = allOrders.remove(orderId);
-        if (order != null) {
+    // removes exactly this order, even if its id was already reused by a newer one
+    private boolean removeOrder(Order order) {
+        final var removed = detachOrder(order);
+        if (removed) {
+            riskCheck.release(order, order.getOpenQuantity());
             orderBookPerType
                     .get(order.getType())
                     .computeIfPresent(order.getFinancialInstrumentId(), (k, v) -> {
@@ -227,15 +603,59 @@ public class OrderBook {
                     });
         }
 
+        return removed;
+    }
+
+    // releases everything the order holds except its risk exposure and its place in the price-time book
+    private boolean detachOrder(Order order) {
+        final var removed = allOrders.remove(order.getId(), order);
+        if (removed) {
+            cancelExpiry(order);
+            removeFromIndexes(order);
+            if (order.getStopPrice() != null) {
+                stopOrderBook.remove(order);
+            }
+        }
+
+        return removed;
+    }
+
+    private void cancelExpiry(Order order) {
+        if (!order.isExpiring()) {
+            return;
+        }
+        // the id may already be reused by an order of another partition with its own timeout
+        final var timeout = expiryTimeoutPerOrderId.get(order.getId());
+        if (timeout != null && timeout.value() == order && expiryTimeoutPerOrderId.remove(order.getId(), timeout)) {
+            expiryWheel.cancel(timeout);
+        }
+    }
+
+    private void addToIndexes(Order order) {
+        ordersPerTraderId.add(order);
+        ordersPerFinancialInstrumentId.add(order);
+    }
+
+    private void removeFromIndexes(Order order) {
+        ordersPerTraderId.remove(order);
+        ordersPerFinancialInstrumentId.remove(order);
     }
 
     // Helper method for testing: Adds an order directly without processing
     public void addOrderWithoutProcessing(Order order) {
-        allOrders.put(order.getId(), order);
-        orderBookPerType.get(order.getType())
-                .computeIfAbsent(order.getFinancialInstrumentId(), k -> new ConcurrentSkipListSet<>(orderBookSortingPerType.get(order.getType())))
-                .add(order);
-        updateFinancialInstrument(order.getFinancialInstrumentId());
+        final var partition = partitions.lock(order.getFinancialInstrumentId());
+        try {
+            allOrders.put(order.getId(), order);
+            order.setSequence(sequenceGenerator.incrementAndGet());
+            addToIndexes(order);
+            orderBookPerType.get(order.getType())
+                    .computeIfAbsent(order.getFinancialInstrumentId(), k -> new ConcurrentSkipListSet<>(orderBookSortingPerType.get(order.getType())))
+                    .add(order);
+            updateFinancialInstrument(order.getFinancialInstrumentId());
+            placeTriggeredStopOrders(partition);
+        } finally {
+            partition.unlock();
+        }
     }
 
     // Helper method for testing: Checks if an order exists in the book
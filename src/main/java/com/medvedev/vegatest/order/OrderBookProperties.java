@@ -0,0 +1,26 @@
+package com.medvedev.vegatest.order;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.ZoneId;
+
+/**
+ * @param selfTradePrevention what to do when two orders of the same trader cross
+ * @param dayEndTime          local time DAY orders expire at, in ISO format
+ * @param timeZone            time zone of the trading day
+ * @param expiryTickMillis    resolution of order expiry
+ */
+@ConfigurationProperties(prefix = "order-book")
+public record OrderBookProperties(
+        SelfTradePreventionMode selfTradePrevention,
+        String dayEndTime,
+        ZoneId timeZone,
+        Long expiryTickMillis
+) {
+    public OrderBookProperties {
+        selfTradePrevention = selfTradePrevention == null ? SelfTradePreventionMode.NONE : selfTradePrevention;
+        dayEndTime = dayEndTime == null ? "23:59:59" : dayEndTime;
+        timeZone = timeZone == null ? ZoneId.of("UTC") : timeZone;
+        expiryTickMillis = expiryTickMillis == null ? 100 : expiryTickMillis;
+    }
+}
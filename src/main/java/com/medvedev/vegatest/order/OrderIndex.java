@@ -0,0 +1,117 @@
+package com.medvedev.vegatest.order;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Secondary index over open orders, kept sorted by order id so that pages can be resumed from the last returned id
+class OrderIndex {
+    private final Map<String, ConcurrentSkipListMap<String, Order>> ordersPerKey;
+    private final Function<Order, String> keyExtractor;
+
+    OrderIndex(Function<Order, String> keyExtractor) {
+        this.ordersPerKey = new ConcurrentHashMap<>();
+        this.keyExtractor = keyExtractor;
+    }
+
+    void add(Order order) {
+        final var key = keyExtractor.apply(order);
+        if (key == null) {
+            return;
+        }
+        ordersPerKey.compute(key, (k, orders) -> {
+            final var result = orders == null ? new ConcurrentSkipListMap<String, Order>() : orders;
+            result.put(order.getId(), order);
+            return result;
+        });
+    }
+
+    void remove(Order order) {
+        final var key = keyExtractor.apply(order);
+        if (key == null) {
+            return;
+        }
+        ordersPerKey.computeIfPresent(key, (k, orders) -> {
+            // an order reusing the id may already have replaced this one
+            orders.remove(order.getId(), order);
+            return orders.isEmpty() ? null : orders;
+        });
+    }
+
+    // one update per key, removing its orders in id order so that the skip list is walked forward
+    void removeAll(Collection<Order> orders) {
+        final var ordersToRemovePerKey = new HashMap<String, List<Order>>();
+        for (final var order : orders) {
+            final var key = keyExtractor.apply(order);
+            if (key != null) {
+                ordersToRemovePerKey.computeIfAbsent(key, k -> new ArrayList<>()).add(order);
+            }
+        }
+        ordersToRemovePerKey.forEach((key, ordersToRemove) -> {
+            ordersToRemove.sort(Comparator.comparing(Order::getId));
+            ordersPerKey.computeIfPresent(key, (k, indexed) -> {
+                ordersToRemove.forEach(order -> indexed.remove(order.getId(), order));
+                return indexed.isEmpty() ? null : indexed;
+            });
+        });
+    }
+
+    // keeps only the orders still open, a key without any is dropped whole instead of being emptied order by order
+    void retainAll(Predicate<Order> open) {
+        for (final var key : ordersPerKey.keySet()) {
+            ordersPerKey.computeIfPresent(key, (k, orders) -> {
+                if (orders.values().stream().noneMatch(open)) {
+                    return null;
+                }
+                orders.values().removeIf(open.negate());
+                return orders;
+            });
+        }
+    }
+
+    // live orders, for callers that are about to remove them from the book
+    List<Order> get(String key) {
+        final var orders = ordersPerKey.get(key);
+        return orders == null ? List.of() : List.copyOf(orders.values());
+    }
+
+    // removes the key with all its orders at once, for callers that drop every order of the key
+    List<Order> removeAll(String key) {
+        final var orders = ordersPerKey.remove(key);
+        return orders == null ? List.of() : List.copyOf(orders.values());
+    }
+
+    List<String> keys() {
+        return List.copyOf(ordersPerKey.keySet());
+    }
+
+    /**
+     * Every order of the page is an atomic snapshot of that order. The page as a whole is only weakly consistent:
+     * orders added or removed while it is read may or may not be part of it.
+     */
+    OrderPage find(String key, String pageToken, int pageSize) {
+        final var orders = ordersPerKey.get(key);
+        if (orders == null) {
+            return OrderPage.EMPTY;
+        }
+
+        // skip list iteration is weakly consistent and never blocks writers
+        final NavigableMap<String, Order> tail = pageToken == null ? orders : orders.tailMap(pageToken, false);
+        final var iterator = tail.values().iterator();
+        final var page = new ArrayList<Order>(Math.min(pageSize, 64));
+        while (page.size() < pageSize && iterator.hasNext()) {
+            page.add(iterator.next().snapshot());
+        }
+
+        final var nextPageToken = iterator.hasNext() ? page.get(page.size() - 1).getId() : null;
+        return new OrderPage(page, nextPageToken);
+    }
+}
@@ -0,0 +1,14 @@
+package com.medvedev.vegatest.order;
+
+import java.util.List;
+
+/**
+ * Page of order snapshots. {@code nextPageToken} is null when there are no more orders to read.
+ */
+public record OrderPage(List<Order> orders, String nextPageToken) {
+    public static final OrderPage EMPTY = new OrderPage(List.of(), null);
+
+    public OrderPage {
+        orders = List.copyOf(orders);
+    }
+}
@@ -6,12 +6,15 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.springframework.stereotype.Component;
 
+import java.time.Clock;
+
 import static java.math.BigDecimal.ZERO;
 
 @Component
 @RequiredArgsConstructor
 public class OrderValidator {
     private final FinancialInstrumentsService financialInstrumentsService;
+    private final Clock clock;
 
     public void validate(Order order) {
         Validate.validState(order.getId() != null,
@@ -20,6 +23,10 @@ public class OrderValidator {
         Validate.validState(order.getType() != null,
                 "orderId=%s type is missing".formatted(order.getId()));
 
+        // optional before pre-trade risk checks, orders without a trader are rejected since
+        Validate.validState(StringUtils.isNotBlank(order.getTraderId()),
+                "orderId=%s trader id is missing".formatted(order.getId()));
+
         Validate.validState(StringUtils.isNotBlank(order.getFinancialInstrumentId()),
                 "orderId=%s financial instrument id is missing".formatted(order.getId()));
 
@@ -29,7 +36,21 @@ public class OrderValidator {
         Validate.validState(order.getPrice() == null || order.getPrice().compareTo(ZERO) >= 0,
                 "orderId=%s price can not be negative".formatted(order.getId()));
 
+        Validate.validState(order.getStopPrice() == null || order.getStopPrice().compareTo(ZERO) > 0,
+                "orderId=%s stop price must be positive".formatted(order.getId()));
+
+        Validate.validState(order.getTimeInForce() != Order.TimeInForce.GTD || order.getExpireTime() != null,
+                "orderId=%s expire time is missing".formatted(order.getId()));
+
+        // an order that expired already would rest, and possibly trade, until the next expiry tick
+        Validate.validState(order.getTimeInForce() != Order.TimeInForce.GTD || order.getExpireTime().isAfter(clock.instant()),
+                "orderId=%s expire time must be in the future".formatted(order.getId()));
+
         Validate.validState(order.getQuantity() != null && order.getQuantity().compareTo(ZERO) > 0,
                 "orderId=%s quantity must be positive".formatted(order.getId()));
+
+        Validate.validState(order.getDisplayQuantity() == null
+                        || (order.getDisplayQuantity().compareTo(ZERO) > 0 && order.getDisplayQuantity().compareTo(order.getQuantity()) <= 0),
+                "orderId=%s display quantity must be positive and not greater than quantity".formatted(order.getId()));
     }
 }
@@ -0,0 +1,8 @@
+package com.medvedev.vegatest.order;
+
+public enum SelfTradePreventionMode {
+    NONE,
+    CANCEL_NEWEST,
+    CANCEL_OLDEST,
+    DECREMENT_BOTH
+}
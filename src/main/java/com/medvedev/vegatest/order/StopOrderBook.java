@@ -0,0 +1,80 @@
+package com.medvedev.vegatest.order;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Per-instrument trigger books, sorted so that the orders triggered first are always at the head
+class StopOrderBook {
+    private final Map<String, ConcurrentSkipListSet<Order>> buyStopOrders;
+    private final Map<String, ConcurrentSkipListSet<Order>> sellStopOrders;
+    private final Map<Order.Type, Map<String, ConcurrentSkipListSet<Order>>> stopOrdersPerType;
+    private final Map<Order.Type, Comparator<Order>> stopOrdersSortingPerType;
+
+    StopOrderBook() {
+        this.buyStopOrders = new ConcurrentHashMap<>();
+        this.sellStopOrders = new ConcurrentHashMap<>();
+
+        this.stopOrdersPerType = Map.of(
+                Order.Type.BUY, buyStopOrders,
+                Order.Type.SELL, sellStopOrders
+        );
+
+        // buy stops trigger when price rises to the stop price, sell stops when it falls to it
+        this.stopOrdersSortingPerType = Map.of(
+                Order.Type.BUY, Comparator.comparing(Order::getStopPrice).thenComparingLong(Order::getSequence),
+                Order.Type.SELL, Comparator.comparing(Order::getStopPrice).reversed().thenComparingLong(Order::getSequence)
+        );
+    }
+
+    void add(Order order) {
+        stopOrdersPerType.get(order.getType())
+                .computeIfAbsent(order.getFinancialInstrumentId(), k -> new ConcurrentSkipListSet<>(stopOrdersSortingPerType.get(order.getType())))
+                .add(order);
+    }
+
+    boolean remove(Order order) {
+        final var stopOrders = stopOrdersPerType.get(order.getType()).get(order.getFinancialInstrumentId());
+        return stopOrders != null && stopOrders.remove(order);
+    }
+
+    void removeAll(String financialInstrumentId) {
+        buyStopOrders.remove(financialInstrumentId);
+        sellStopOrders.remove(financialInstrumentId);
+    }
+
+    /**
+     * Removes and returns all stop orders triggered by the given price. Each order is returned to exactly one caller,
+     * so concurrent evaluations never trigger the same order twice.
+     */
+    List<Order> trigger(String financialInstrumentId, BigDecimal price) {
+        final var triggeredOrders = new ArrayList<Order>();
+        pollTriggered(buyStopOrders.get(financialInstrumentId), price, triggeredOrders);
+        pollTriggered(sellStopOrders.get(financialInstrumentId), price, triggeredOrders);
+        return triggeredOrders;
+    }
+
+    private void pollTriggered(ConcurrentSkipListSet<Order> stopOrders, BigDecimal price, List<Order> triggeredOrders) {
+        if (stopOrders == null) {
+            return;
+        }
+        // walking from the head touches only the k triggered orders after the initial descent
+        for (final var order : stopOrders) {
+            if (!isTriggered(order, price)) {
+                return;
+            }
+            if (stopOrders.remove(order)) {
+                triggeredOrders.add(order);
+            }
+        }
+    }
+
+    private boolean isTriggered(Order order, BigDecimal price) {
+        final var comparisonResult = price.compareTo(order.getStopPrice());
+        return order.getType() == Order.Type.BUY ? comparisonResult >= 0 : comparisonResult <= 0;
+    }
+}
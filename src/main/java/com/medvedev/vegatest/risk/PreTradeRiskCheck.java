@@ -0,0 +1,145 @@
+package com.medvedev.vegatest.risk;
+
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsService;
+import com.medvedev.vegatest.order.Order;
+import org.apache.commons.lang3.Validate;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.math.BigDecimal.ZERO;
+
+/**
+ * Pre-trade risk stage, executed after field validation and before the order reaches the book.
+ * Exposure is reserved when the order is accepted and released by the book on fills and cancels.
+ * Notional is only tracked for priced orders, orders without price are bounded by the open quantity limit.
+ */
+@Component
+public class PreTradeRiskCheck {
+    private static final BigDecimal ONE_HUNDRED = BigDecimal.valueOf(100);
+
+    private final Map<String, TraderExposure> exposurePerTraderId;
+    private final RiskLimitsProperties limits;
+    private final FinancialInstrumentsService financialInstrumentsService;
+    private final Clock clock;
+
+    public PreTradeRiskCheck(RiskLimitsProperties limits, FinancialInstrumentsService financialInstrumentsService, Clock clock) {
+        this.exposurePerTraderId = new ConcurrentHashMap<>();
+        this.limits = limits;
+        this.financialInstrumentsService = financialInstrumentsService;
+        this.clock = clock;
+    }
+
+    public void check(Order order) {
+        checkPriceBand(order);
+
+        final var exposure = exposurePerTraderId.computeIfAbsent(order.getTraderId(), k -> new TraderExposure());
+        // the rate counts accepted orders only, a rejected order gives its slot back
+        final var epochSecond = clock.millis() / 1000;
+        if (limits.maxOrdersPerSecond() != null) {
+            final var withinRate = exposure.incrementOrderRate(epochSecond) <= limits.maxOrdersPerSecond();
+            if (!withinRate) {
+                exposure.decrementOrderRate(epochSecond);
+            }
+            Validate.validState(withinRate,
+                    "orderId=%s traderId=%s exceeded order rate limit", order.getId(), order.getTraderId());
+        }
+
+        final var reserved = exposure.tryReserve(notional(order, order.getQuantity()), order.getQuantity(), limits.maxNotional(), limits.maxOpenQuantity());
+        if (!reserved && limits.maxOrdersPerSecond() != null) {
+            exposure.decrementOrderRate(epochSecond);
+        }
+        Validate.validState(reserved,
+                "orderId=%s traderId=%s exceeded exposure limits", order.getId(), order.getTraderId());
+    }
+
+    /**
+     * Undoes {@link #check} for an order the book rejected afterwards: releases its reservation and gives back its
+     * order rate slot if the window has not moved on yet.
+     */
+    public void rollback(Order order) {
+        release(order, order.getQuantity());
+        final var exposure = exposurePerTraderId.get(order.getTraderId());
+        if (exposure != null && limits.maxOrdersPerSecond() != null) {
+            exposure.decrementOrderRate(clock.millis() / 1000);
+        }
+    }
+
+    /**
+     * Releases exposure of the given order quantity once it was filled or cancelled.
+     */
+    public void release(Order order, BigDecimal quantity) {
+        if (order.getTraderId() == null || quantity.signum() == 0) {
+            return;
+        }
+        final var exposure = exposurePerTraderId.get(order.getTraderId());
+        if (exposure != null) {
+            exposure.release(notional(order, quantity), quantity);
+        }
+    }
+
+    /**
+     * Releases the whole open quantity of orders that leave the book together, with a single exposure update per trader.
+     */
+    public void releaseAll(Collection<Order> orders) {
+        final var releasedPerTraderId = new HashMap<String, Released>();
+        for (final var order : orders) {
+            if (order.getTraderId() == null) {
+                continue;
+            }
+            final var quantity = order.getOpenQuantity();
+            releasedPerTraderId.computeIfAbsent(order.getTraderId(), k -> new Released()).add(notional(order, quantity), quantity);
+        }
+        releasedPerTraderId.forEach((traderId, released) -> {
+            final var exposure = exposurePerTraderId.get(traderId);
+            if (exposure != null) {
+                exposure.release(released.notional, released.openQuantity);
+            }
+        });
+    }
+
+    public BigDecimal getNotional(String traderId) {
+        final var exposure = exposurePerTraderId.get(traderId);
+        return exposure == null ? ZERO : exposure.getExposure().notional();
+    }
+
+    public BigDecimal getOpenQuantity(String traderId) {
+        final var exposure = exposurePerTraderId.get(traderId);
+        return exposure == null ? ZERO : exposure.getExposure().openQuantity();
+    }
+
+    private void checkPriceBand(Order order) {
+        if (limits.priceBandPercent() == null || order.getPrice() == null) {
+            return;
+        }
+        final var instrument = financialInstrumentsService.get(order.getFinancialInstrumentId());
+        final var referencePrice = instrument == null ? null : instrument.getPrice();
+        if (referencePrice == null || referencePrice.signum() == 0) {
+            return; // no market yet, nothing to compare with
+        }
+        // |price - reference| / reference <= band / 100, rearranged to avoid division
+        final var deviation = order.getPrice().subtract(referencePrice).abs().multiply(ONE_HUNDRED);
+        Validate.validState(deviation.compareTo(referencePrice.multiply(limits.priceBandPercent())) <= 0,
+                "orderId=%s price=%s is outside of the allowed band around instrument price=%s", order.getId(), order.getPrice(), referencePrice);
+    }
+
+    private BigDecimal notional(Order order, BigDecimal quantity) {
+        return order.getPrice() == null ? ZERO : order.getPrice().multiply(quantity);
+    }
+
+    // summed locally before the shared counter is touched once per trader
+    private static final class Released {
+        private BigDecimal notional = ZERO;
+        private BigDecimal openQuantity = ZERO;
+
+        void add(BigDecimal notional, BigDecimal openQuantity) {
+            this.notional = this.notional.add(notional);
+            this.openQuantity = this.openQuantity.add(openQuantity);
+        }
+    }
+}
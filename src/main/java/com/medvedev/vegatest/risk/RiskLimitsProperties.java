@@ -0,0 +1,17 @@
+package com.medvedev.vegatest.risk;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.math.BigDecimal;
+
+/**
+ * Per-trader pre-trade limits. A missing value disables the corresponding check.
+ */
+@ConfigurationProperties(prefix = "risk-limits")
+public record RiskLimitsProperties(
+        BigDecimal maxNotional,
+        BigDecimal maxOpenQuantity,
+        Integer maxOrdersPerSecond,
+        BigDecimal priceBandPercent
+) {
+}
@@ -0,0 +1,66 @@
+package com.medvedev.vegatest.risk;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Lock-free per-trader counters: exposure is swapped as a whole by CAS, order rate is packed into a single long
+class TraderExposure {
+    private static final int COUNT_BITS = 20;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final AtomicReference<Exposure> exposure = new AtomicReference<>(Exposure.EMPTY);
+    private final AtomicLong rateWindow = new AtomicLong();
+
+    /**
+     * Counts one more order in the current one-second window and returns the number of orders in it.
+     */
+    int incrementOrderRate(long epochSecond) {
+        final var updated = rateWindow.updateAndGet(prev -> {
+            final var windowSecond = prev >>> COUNT_BITS;
+            final var count = windowSecond == epochSecond ? prev & COUNT_MASK : 0;
+            return (epochSecond << COUNT_BITS) | Math.min(count + 1, COUNT_MASK);
+        });
+        return (int) (updated & COUNT_MASK);
+    }
+
+    /**
+     * Takes back one order of the given window, for an order that was counted but then rejected.
+     */
+    void decrementOrderRate(long epochSecond) {
+        rateWindow.updateAndGet(prev -> (prev >>> COUNT_BITS) == epochSecond && (prev & COUNT_MASK) > 0 ? prev - 1 : prev);
+    }
+
+    /**
+     * Adds the given exposure unless one of the limits would be exceeded.
+     *
+     * @return false if the exposure was not reserved
+     */
+    boolean tryReserve(BigDecimal notional, BigDecimal quantity, BigDecimal maxNotional, BigDecimal maxOpenQuantity) {
+        while (true) {
+            final var current = exposure.get();
+            final var updated = new Exposure(current.notional().add(notional), current.openQuantity().add(quantity));
+            if (maxNotional != null && updated.notional().compareTo(maxNotional) > 0) {
+                return false;
+            }
+            if (maxOpenQuantity != null && updated.openQuantity().compareTo(maxOpenQuantity) > 0) {
+                return false;
+            }
+            if (exposure.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    void release(BigDecimal notional, BigDecimal quantity) {
+        exposure.getAndUpdate(prev -> new Exposure(prev.notional().subtract(notional), prev.openQuantity().subtract(quantity)));
+    }
+
+    Exposure getExposure() {
+        return exposure.get();
+    }
+
+    record Exposure(BigDecimal notional, BigDecimal openQuantity) {
+        static final Exposure EMPTY = new Exposure(BigDecimal.ZERO, BigDecimal.ZERO);
+    }
+}
@@ -0,0 +1,104 @@
+package com.medvedev.vegatest.financialinstrument;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FinancialInstrumentCatalogTest {
+
+    @Test
+    void shouldReadWrittenInstrumentsWithDependencies(@TempDir Path tempDir) {
+        var catalogFile = tempDir.resolve("instruments.bin");
+        var stock = new FinancialInstrument("S1", "Stock1", BigDecimal.ZERO);
+        var bond = new FinancialInstrument("B1", "Bond1", BigDecimal.ZERO);
+        var combo = new CompositeFinancialInstrument("C1", "Combo1", BigDecimal.ZERO, Set.of(
+                new FinancialInstrument("S1", "Stock1", BigDecimal.ZERO),
+                new FinancialInstrument("B1", "Bond1", BigDecimal.ZERO)));
+
+        FinancialInstrumentCatalog.write(catalogFile, List.of(stock, bond, combo));
+        var contents = FinancialInstrumentCatalog.read(catalogFile);
+
+        assertEquals(3, contents.instruments().size());
+        assertEquals("Stock1", contents.instruments().get("S1").getSymbol());
+        assertFalse(contents.instruments().get("S1") instanceof CompositeFinancialInstrument);
+
+        var readCombo = (CompositeFinancialInstrument) contents.instruments().get("C1");
+        assertEquals("Combo1", readCombo.getSymbol());
+        assertEquals(Set.of("S1", "B1"), readCombo.getChildInstruments().stream().map(FinancialInstrument::getId).collect(Collectors.toSet()));
+
+        assertEquals(Map.of("S1", Set.of("C1"), "B1", Set.of("C1")), contents.dependentCompositeIds());
+    }
+
+    @Test
+    void shouldRejectCompositeWithUnknownChild(@TempDir Path tempDir) {
+        var combo = new CompositeFinancialInstrument("C1", "Combo1", BigDecimal.ZERO, Set.of(
+                new FinancialInstrument("S1", "Stock1", BigDecimal.ZERO)));
+
+        var exception = assertThrows(IllegalStateException.class,
+                () -> FinancialInstrumentCatalog.write(tempDir.resolve("instruments.bin"), List.of(combo)));
+        assertTrue(exception.getMessage().contains("Child financialInstrumentId=S1"));
+    }
+
+    @Test
+    void shouldRejectStringLongerThanCatalogSupports(@TempDir Path tempDir) {
+        var stock = new FinancialInstrument("S1", "S".repeat(65536), BigDecimal.ZERO);
+
+        var exception = assertThrows(IllegalStateException.class,
+                () -> FinancialInstrumentCatalog.write(tempDir.resolve("instruments.bin"), List.of(stock)));
+        assertTrue(exception.getMessage().contains("financialInstrumentId=S1 symbol has 65536 UTF-8 bytes"));
+    }
+
+    @Test
+    void shouldWriteStringOfMaximalLength(@TempDir Path tempDir) {
+        var catalogFile = tempDir.resolve("instruments.bin");
+        var symbol = "S".repeat(65535);
+
+        FinancialInstrumentCatalog.write(catalogFile, List.of(new FinancialInstrument("S1", symbol, BigDecimal.ZERO)));
+
+        assertEquals(symbol, FinancialInstrumentCatalog.read(catalogFile).instruments().get("S1").getSymbol());
+    }
+
+    @Test
+    void shouldRejectDuplicateIdOnWrite(@TempDir Path tempDir) {
+        var stocks = List.of(new FinancialInstrument("S1", "Stock1", BigDecimal.ZERO), new FinancialInstrument("S1", "Stock2", BigDecimal.ZERO));
+
+        var exception = assertThrows(IllegalStateException.class,
+                () -> FinancialInstrumentCatalog.write(tempDir.resolve("instruments.bin"), stocks));
+        assertTrue(exception.getMessage().contains("financialInstrumentId=S1"));
+    }
+
+    @Test
+    void shouldRejectDuplicateIdOnRead(@TempDir Path tempDir) throws Exception {
+        var catalogFile = tempDir.resolve("instruments.bin");
+        FinancialInstrumentCatalog.write(catalogFile, List.of(
+                new FinancialInstrument("S1", "Stock1", BigDecimal.ZERO), new FinancialInstrument("S2", "Stock2", BigDecimal.ZERO)));
+        // renames the second record, ids are encoded as length followed by the bytes
+        var bytes = Files.readAllBytes(catalogFile);
+        var secondId = ByteBuffer.wrap(bytes).getInt(16) + Short.BYTES;
+        bytes[secondId + 1] = '1';
+        Files.write(catalogFile, bytes);
+
+        var exception = assertThrows(IllegalStateException.class, () -> FinancialInstrumentCatalog.read(catalogFile));
+        assertTrue(exception.getMessage().contains("financialInstrumentId=S1 more than once"));
+    }
+
+    @Test
+    void shouldRejectFileWhichIsNotCatalog(@TempDir Path tempDir) throws Exception {
+        var file = Files.write(tempDir.resolve("instruments.bin"), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+
+        assertThrows(IllegalStateException.class, () -> FinancialInstrumentCatalog.read(file));
+    }
+}
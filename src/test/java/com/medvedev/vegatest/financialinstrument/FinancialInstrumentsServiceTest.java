@@ -1,8 +1,11 @@
 package com.medvedev.vegatest.financialinstrument;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -66,4 +69,63 @@ class FinancialInstrumentsServiceTest {
         // then
         assertNull(retrievedInstrument);
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldFindDependentCompositeInstruments() {
+        // given
+        var compositeProperties = new FinancialInstrumentsProperties(
+                Map.of("S1", "Stock1", "S2", "Stock2", "C1", "Combo1"),
+                Set.of(new FinancialInstrument().setId("S1"), new FinancialInstrument().setId("S2")),
+                Set.of(new CompositeFinancialInstrument("C1", null, BigDecimal.ZERO, Set.of(new FinancialInstrument().setId("S1"))))
+        );
+
+        // when
+        var service = new FinancialInstrumentsService(compositeProperties);
+
+        // then
+        assertEquals(Set.of("C1"), service.findDependentCompositeInstruments("S1"));
+        assertEquals(Set.of(), service.findDependentCompositeInstruments("S2"));
+    }
+
+    @Test
+    void shouldMaintainCompositeFairValueFromLegTopOfBook() {
+        // given
+        var compositeProperties = new FinancialInstrumentsProperties(
+                Map.of("S1", "Stock1", "S2", "Stock2", "C1", "Combo1"),
+                Set.of(new FinancialInstrument().setId("S1"), new FinancialInstrument().setId("S2")),
+                Set.of(new CompositeFinancialInstrument("C1", null, BigDecimal.ZERO, Set.of(new FinancialInstrument().setId("S1"), new FinancialInstrument().setId("S2"))))
+        );
+        var service = new FinancialInstrumentsService(compositeProperties);
+
+        // when + then
+        service.updateTopOfBook("S1", new BigDecimal("99"), new BigDecimal("101"));
+        assertEquals(FairValue.UNKNOWN, service.getFairValue("C1"));
+
+        service.updateTopOfBook("S2", new BigDecimal("49"), new BigDecimal("51"));
+        assertEquals(new FairValue(new BigDecimal("148"), new BigDecimal("152"), new BigDecimal("150")), service.getFairValue("C1"));
+
+        service.updateTopOfBook("S1", new BigDecimal("100"), null);
+        assertEquals(new FairValue(new BigDecimal("149"), null, null), service.getFairValue("C1"));
+
+        service.updateTopOfBook("S1", new BigDecimal("100"), new BigDecimal("103"));
+        assertEquals(new FairValue(new BigDecimal("149"), new BigDecimal("154"), new BigDecimal("152")), service.getFairValue("C1"));
+        assertNull(service.getFairValue("S1"));
+    }
+
+    @Test
+    void shouldLoadInstrumentsFromCatalog(@TempDir Path tempDir) {
+        // given
+        var catalogFile = tempDir.resolve("instruments.bin");
+        FinancialInstrumentCatalog.write(catalogFile, List.of(
+                new FinancialInstrument("S1", "Stock1", BigDecimal.ZERO),
+                new CompositeFinancialInstrument("C1", "Combo1", BigDecimal.ZERO, Set.of(new FinancialInstrument("S1", "Stock1", BigDecimal.ZERO)))
+        ));
+
+        // when
+        var service = new FinancialInstrumentsService(new FinancialInstrumentsProperties(null, null, null, catalogFile.toString()));
+
+        // then
+        assertEquals("Stock1", service.get("S1").getSymbol());
+        assertEquals(Set.of("C1"), service.findDependentCompositeInstruments("S1"));
+    }
+}
@@ -0,0 +1,139 @@
+package com.medvedev.vegatest.marketdata;
+
+import com.medvedev.vegatest.MutableClock;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BarAggregatorTest {
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2024-01-01T10:00:00Z"));
+
+    @Test
+    void shouldAggregateTradesIntoBar() {
+        var aggregator = new BarAggregator(new MarketDataProperties(10, null, null), clock);
+
+        aggregator.onTrade("S1", new BigDecimal("100"), new BigDecimal("1"));
+        aggregator.onTrade("S1", new BigDecimal("110"), new BigDecimal("2"));
+        aggregator.onTrade("S1", new BigDecimal("90"), new BigDecimal("1"));
+
+        var bars = aggregator.getBars("S1", BarInterval.ONE_SECOND, 10);
+        assertEquals(1, bars.size());
+        var bar = bars.get(0);
+        assertEquals(Instant.parse("2024-01-01T10:00:00Z"), bar.start());
+        assertEquals(0, bar.open().compareTo(new BigDecimal("100")));
+        assertEquals(0, bar.high().compareTo(new BigDecimal("110")));
+        assertEquals(0, bar.low().compareTo(new BigDecimal("90")));
+        assertEquals(0, bar.close().compareTo(new BigDecimal("90")));
+        assertEquals(0, bar.volume().compareTo(new BigDecimal("4")));
+        assertEquals(0, bar.vwap().compareTo(new BigDecimal("102.5")));
+    }
+
+    @Test
+    void shouldStartNewBarPerTimeBucket() {
+        var aggregator = new BarAggregator(new MarketDataProperties(10, null, null), clock);
+
+        aggregator.onTrade("S1", new BigDecimal("100"), BigDecimal.ONE);
+        clock.advanceMillis(1_500);
+        aggregator.onTrade("S1", new BigDecimal("101"), BigDecimal.ONE);
+
+        var secondBars = aggregator.getBars("S1", BarInterval.ONE_SECOND, 10);
+        assertEquals(2, secondBars.size());
+        assertEquals(Instant.parse("2024-01-01T10:00:01Z"), secondBars.get(1).start());
+
+        var minuteBars = aggregator.getBars("S1", BarInterval.ONE_MINUTE, 10);
+        assertEquals(1, minuteBars.size());
+        assertEquals(0, minuteBars.get(0).volume().compareTo(new BigDecimal("2")));
+    }
+
+    @Test
+    void shouldKeepFixedNumberOfBars() {
+        var aggregator = new BarAggregator(new MarketDataProperties(3, null, null), clock);
+
+        for (int i = 0; i < 5; i++) {
+            aggregator.onTrade("S1", BigDecimal.valueOf(100 + i), BigDecimal.ONE);
+            clock.advanceMillis(1_000);
+        }
+
+        var bars = aggregator.getBars("S1", BarInterval.ONE_SECOND, 10);
+        assertEquals(3, bars.size());
+        assertEquals(0, bars.get(0).open().compareTo(new BigDecimal("102")));
+        assertEquals(0, bars.get(2).open().compareTo(new BigDecimal("104")));
+    }
+
+    @Test
+    void shouldKeepFractionalVolumeExact(@TempDir Path tempDir) {
+        try (var aggregator = new BarAggregator(new MarketDataProperties(10, tempDir.resolve("bars.dat").toString(), 100), clock)) {
+            aggregator.onTrade("S1", new BigDecimal("100.10"), new BigDecimal("0.1"));
+            aggregator.onTrade("S1", new BigDecimal("100.20"), new BigDecimal("0.2"));
+            clock.advanceMillis(1_000);
+            aggregator.onTrade("S1", new BigDecimal("100.30"), BigDecimal.ONE);
+            aggregator.flushHistory();
+
+            var bar = aggregator.getBars("S1", BarInterval.ONE_MINUTE, 10).get(0);
+            assertEquals(new BigDecimal("1.3"), bar.volume());
+            assertEquals(0, bar.vwap().compareTo(new BigDecimal("100.2692307692308")));
+
+            var completedBar = aggregator.getHistory("S1", BarInterval.ONE_SECOND).get(0);
+            assertEquals(new BigDecimal("0.3"), completedBar.volume());
+            assertEquals(0, completedBar.vwap().compareTo(new BigDecimal("100.1666666666667")));
+        }
+    }
+
+    @Test
+    void shouldKeepBarsOfInstrumentIdNotFittingHistoryFileInMemoryOnly(@TempDir Path tempDir) {
+        try (var aggregator = new BarAggregator(new MarketDataProperties(10, tempDir.resolve("bars.dat").toString(), 100), clock)) {
+            var longId = "S".repeat(33);
+            aggregator.onTrade(longId, BigDecimal.TEN, BigDecimal.ONE);
+            clock.advanceMillis(1_000);
+            aggregator.onTrade(longId, BigDecimal.TEN, BigDecimal.ONE);
+            aggregator.flushHistory();
+
+            assertEquals(2, aggregator.getBars(longId, BarInterval.ONE_SECOND, 10).size());
+            assertThrows(IllegalArgumentException.class, () -> aggregator.getHistory(longId, BarInterval.ONE_SECOND));
+        }
+    }
+
+    @Test
+    void shouldRejectHistoryCapacityBeyondSingleMapping(@TempDir Path tempDir) {
+        var properties = new MarketDataProperties(10, tempDir.resolve("bars.dat").toString(), 20_000_000);
+        assertThrows(IllegalArgumentException.class, () -> new BarAggregator(properties, clock));
+    }
+
+    @Test
+    void shouldReturnNoBarsForInstrumentWithoutTrades() {
+        var aggregator = new BarAggregator(new MarketDataProperties(10, null, null), clock);
+
+        assertTrue(aggregator.getBars("S1", BarInterval.ONE_HOUR, 10).isEmpty());
+    }
+
+    @Test
+    void shouldAppendCompletedBarsToHistoryFile(@TempDir Path tempDir) {
+        var historyFile = tempDir.resolve("bars.dat").toString();
+
+        try (var aggregator = new BarAggregator(new MarketDataProperties(10, historyFile, 100), clock)) {
+            aggregator.onTrade("S1", new BigDecimal("100"), BigDecimal.ONE);
+            aggregator.onTrade("S2", new BigDecimal("50"), BigDecimal.ONE);
+            clock.advanceMillis(1_000);
+            aggregator.onTrade("S1", new BigDecimal("101"), BigDecimal.ONE);
+            assertTrue(aggregator.getHistory("S1", BarInterval.ONE_SECOND).isEmpty(), "Completed bars are written by the flush only");
+            aggregator.flushHistory();
+
+            var history = aggregator.getHistory("S1", BarInterval.ONE_SECOND);
+            assertEquals(1, history.size());
+            assertEquals(0, history.get(0).close().compareTo(new BigDecimal("100")));
+            assertTrue(aggregator.getHistory("S2", BarInterval.ONE_SECOND).isEmpty(), "Bar of S2 is still open");
+        }
+
+        try (var reopened = new BarAggregator(new MarketDataProperties(10, historyFile, 100), clock)) {
+            assertEquals(1, reopened.getHistory("S1", BarInterval.ONE_SECOND).size(), "History should survive a restart");
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.medvedev.vegatest.order;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HierarchicalTimerWheelTest {
+    private static final long TICK_MILLIS = 100;
+    private static final long START_MILLIS = 1_700_000_000_000L;
+
+    private final HierarchicalTimerWheel<String> wheel = new HierarchicalTimerWheel<>(TICK_MILLIS, START_MILLIS);
+
+    @Test
+    void shouldExpireValuesOnceDeadlinePassed() {
+        wheel.schedule(START_MILLIS + 250, "a");
+        wheel.schedule(START_MILLIS + 1_000, "b");
+
+        assertTrue(wheel.advance(START_MILLIS + 200).isEmpty());
+        assertEquals(List.of("a"), wheel.advance(START_MILLIS + 300));
+        assertEquals(List.of("b"), wheel.advance(START_MILLIS + 5_000));
+        assertTrue(wheel.advance(START_MILLIS + 10_000).isEmpty());
+    }
+
+    @Test
+    void shouldNotExpireCancelledValues() {
+        var timeout = wheel.schedule(START_MILLIS + 500, "a");
+        wheel.schedule(START_MILLIS + 500, "b");
+
+        wheel.cancel(timeout);
+        wheel.cancel(timeout);
+
+        assertEquals(List.of("b"), wheel.advance(START_MILLIS + 500));
+    }
+
+    @Test
+    void shouldExpirePastDeadlinesOnNextTick() {
+        wheel.schedule(START_MILLIS - 60_000, "a");
+
+        assertEquals(List.of("a"), wheel.advance(START_MILLIS + TICK_MILLIS));
+    }
+
+    @Test
+    void shouldCascadeDistantDeadlines() {
+        var deadline = START_MILLIS + 3 * 24 * 3_600_000L + 123;
+        wheel.schedule(deadline, "a");
+
+        assertTrue(wheel.advance(deadline - TICK_MILLIS).isEmpty());
+        assertEquals(List.of("a"), wheel.advance(deadline + TICK_MILLIS));
+    }
+
+    @Test
+    void shouldExpireInDeadlineOrderForRandomSchedules() {
+        var random = new Random(42);
+        var expected = new TreeMap<Long, List<String>>();
+        for (int i = 0; i < 10_000; i++) {
+            var deadlineTick = START_MILLIS / TICK_MILLIS + 1 + random.nextInt(200_000);
+            wheel.schedule(deadlineTick * TICK_MILLIS, "v" + i);
+            expected.computeIfAbsent(deadlineTick, k -> new ArrayList<>()).add("v" + i);
+        }
+
+        var now = START_MILLIS;
+        while (!expected.isEmpty()) {
+            now += random.nextInt(50_000);
+            var expired = wheel.advance(now);
+
+            var due = expected.headMap(now / TICK_MILLIS, true);
+            var dueValues = due.values().stream().flatMap(List::stream).sorted().toList();
+            assertEquals(dueValues, expired.stream().sorted().toList());
+            due.clear();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.medvedev.vegatest.order;
+
+import com.medvedev.vegatest.financialinstrument.CompositeFinancialInstrument;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrument;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsProperties;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsService;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MatchingPartitionsTest {
+
+    private final FinancialInstrumentsService financialInstrumentsService = new FinancialInstrumentsService(new FinancialInstrumentsProperties(
+            Map.of("S1", "Stock1", "S2", "Stock2", "S3", "Stock3", "S4", "Stock4", "C1", "Combo1", "C2", "Combo2"),
+            Set.of(aFinancialInstrument("S1"), aFinancialInstrument("S2"), aFinancialInstrument("S3"), aFinancialInstrument("S4")),
+            Set.of(
+                    new CompositeFinancialInstrument("C1", "Combo1", BigDecimal.ZERO, Set.of(aFinancialInstrument("S1"), aFinancialInstrument("S2"))),
+                    new CompositeFinancialInstrument("C2", "Combo2", BigDecimal.ZERO, Set.of(aFinancialInstrument("S2"), aFinancialInstrument("S3"))))
+    ));
+    private final MatchingPartitions partitions = new MatchingPartitions(financialInstrumentsService);
+
+    @Test
+    void shouldShareOnePartitionAcrossCompositesWithCommonLegs() {
+        var partition = partitions.get("S1");
+
+        assertSame(partition, partitions.get("C1"));
+        assertSame(partition, partitions.get("S2"));
+        assertSame(partition, partitions.get("C2"), "C2 is reached through the common leg S2");
+        assertSame(partition, partitions.get("S3"));
+    }
+
+    @Test
+    void shouldAssignSamePartitionWhicheverInstrumentIsReachedFirst() {
+        var partition = partitions.get("C2");
+
+        assertSame(partition, partitions.get("S1"));
+    }
+
+    @Test
+    void shouldKeepUnrelatedInstrumentsApart() {
+        assertNotSame(partitions.get("S1"), partitions.get("S4"));
+        assertNotSame(partitions.get("S4"), partitions.get("unknown"));
+    }
+
+    @Test
+    void shouldMergePartitionsConnectedByCompositePutLater() {
+        assertNotSame(partitions.get("S1"), partitions.get("S4"));
+
+        financialInstrumentsService.put(aCompositeOfS3AndS4());
+
+        var partition = partitions.lock("S4");
+        try {
+            assertSame(partition, partitions.get("S1"));
+            assertSame(partition, partitions.get("C3"));
+        } finally {
+            partition.unlock();
+        }
+    }
+
+    @Test
+    void shouldMergePartitionsOnlyOnceTheirLockHoldersAreDone() throws Exception {
+        var s4Partition = partitions.lock("S4");
+        var s1Partition = partitions.lock("S1");
+        var put = CompletableFuture.runAsync(() -> financialInstrumentsService.put(aCompositeOfS3AndS4()));
+        try {
+            assertThrows(TimeoutException.class, () -> put.get(100, TimeUnit.MILLISECONDS), "Merge must wait for running matching");
+        } finally {
+            s1Partition.unlock();
+            s4Partition.unlock();
+        }
+
+        put.get(5, TimeUnit.SECONDS);
+        assertSame(partitions.get("S1"), partitions.get("S4"));
+    }
+
+    private static CompositeFinancialInstrument aCompositeOfS3AndS4() {
+        return new CompositeFinancialInstrument("C3", "Combo3", BigDecimal.ZERO, Set.of(aFinancialInstrument("S3"), aFinancialInstrument("S4")));
+    }
+
+    private static FinancialInstrument aFinancialInstrument(String id) {
+        return new FinancialInstrument(id, id, BigDecimal.ZERO);
+    }
+}
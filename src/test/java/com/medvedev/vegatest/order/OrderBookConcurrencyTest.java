@@ -0,0 +1,279 @@
+package com.medvedev.vegatest.order;
+
+import com.medvedev.vegatest.financialinstrument.CompositeFinancialInstrument;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrument;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsProperties;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsService;
+import com.medvedev.vegatest.marketdata.Bar;
+import com.medvedev.vegatest.marketdata.BarAggregator;
+import com.medvedev.vegatest.marketdata.BarInterval;
+import com.medvedev.vegatest.marketdata.MarketDataProperties;
+import com.medvedev.vegatest.risk.PreTradeRiskCheck;
+import com.medvedev.vegatest.risk.RiskLimitsProperties;
+import org.apache.commons.lang3.ObjectUtils;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Randomized order flow from several threads against one book. Once all threads are done the book has to be in a
+ * state that some sequential execution of the same operations could have produced.
+ */
+class OrderBookConcurrencyTest {
+    private static final List<String> LEG_INSTRUMENT_IDS = List.of("FI1", "FI2");
+    // FI3 is no leg of the composite, so it matches in its own partition in parallel with the others
+    private static final List<String> SIMPLE_INSTRUMENT_IDS = List.of("FI1", "FI2", "FI3");
+    private static final String COMPOSITE_INSTRUMENT_ID = "FI1_FI2";
+    private static final List<String> TRADER_IDS = List.of("Trader1", "Trader2", "Trader3", "Trader4");
+    private static final int OPERATIONS_PER_THREAD = 1_000;
+
+    private final Clock clock = Clock.fixed(Instant.parse("2024-01-02T10:00:00Z"), ZoneOffset.UTC);
+    private final FinancialInstrumentsService financialInstrumentsService = new FinancialInstrumentsService(new FinancialInstrumentsProperties(
+            Map.of("FI1", "FI1", "FI2", "FI2", "FI3", "FI3", COMPOSITE_INSTRUMENT_ID, COMPOSITE_INSTRUMENT_ID),
+            Set.of(new FinancialInstrument().setId("FI1"), new FinancialInstrument().setId("FI2"), new FinancialInstrument().setId("FI3")),
+            Set.of(new CompositeFinancialInstrument(COMPOSITE_INSTRUMENT_ID, COMPOSITE_INSTRUMENT_ID, BigDecimal.ZERO, Set.of(
+                    new FinancialInstrument("FI1", "FI1", BigDecimal.ZERO),
+                    new FinancialInstrument("FI2", "FI2", BigDecimal.ZERO))))
+    ));
+    private final PreTradeRiskCheck riskCheck = new PreTradeRiskCheck(new RiskLimitsProperties(null, null, null, null), financialInstrumentsService, clock);
+    private final BarAggregator barAggregator = new BarAggregator(new MarketDataProperties(null, null, null), clock);
+    private final OrderBook orderBook = new OrderBook(new OrderValidator(financialInstrumentsService, clock), riskCheck, financialInstrumentsService,
+            barAggregator, new OrderBookProperties(SelfTradePreventionMode.NONE, null, null, null), clock);
+
+    private final Queue<SubmittedOrder> submittedOrders = new ConcurrentLinkedQueue<>();
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 4, 8})
+    void shouldKeepOrderBookConsistentUnderConcurrentOrderFlow(int threads) throws Exception {
+        final var seed = System.nanoTime();
+        final var start = new CountDownLatch(1);
+        // daemon threads, so that a livelocked matching loop fails the test instead of hanging the build
+        final var executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final var thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final var tasks = new ArrayList<Callable<Void>>();
+            for (int thread = 0; thread < threads; thread++) {
+                final var threadId = thread;
+                tasks.add(() -> {
+                    start.await();
+                    submitRandomOrderFlow(threadId, new Random(seed + threadId));
+                    return null;
+                });
+            }
+            final var futures = tasks.stream().map(executor::submit).toList();
+            start.countDown();
+            for (final var future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final var message = "threads=%d seed=%d".formatted(threads, seed);
+        assertNoOrderIsOverFilled(message);
+        assertQuantityIsConserved(message);
+        assertRestingOrdersAreConsistent(message);
+        assertPricesMatchTopOfBook(message);
+        assertCompositeFairValueMatchesLegs(message);
+    }
+
+    private void submitRandomOrderFlow(int threadId, Random random) {
+        final var ownOrderIds = new ArrayList<String>();
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+            if (!ownOrderIds.isEmpty() && random.nextInt(5) == 0) {
+                orderBook.cancelOrder(ownOrderIds.get(random.nextInt(ownOrderIds.size())));
+                continue;
+            }
+            if (random.nextInt(200) == 0) {
+                orderBook.cancelAllByTraderId(TRADER_IDS.get(random.nextInt(TRADER_IDS.size())));
+                continue;
+            }
+            if (random.nextInt(500) == 0) {
+                orderBook.cancelAllByFinancialInstrumentId(SIMPLE_INSTRUMENT_IDS.get(random.nextInt(SIMPLE_INSTRUMENT_IDS.size())));
+                continue;
+            }
+            if (random.nextInt(2_000) == 0) {
+                orderBook.cancelAll();
+                continue;
+            }
+
+            final var composite = random.nextInt(10) == 0;
+            final var order = new Order(
+                    "%d-%d".formatted(threadId, i),
+                    composite ? COMPOSITE_INSTRUMENT_ID : SIMPLE_INSTRUMENT_IDS.get(random.nextInt(SIMPLE_INSTRUMENT_IDS.size())),
+                    TRADER_IDS.get(random.nextInt(TRADER_IDS.size())),
+                    BigDecimal.valueOf((composite ? 190 : 95) + random.nextInt(composite ? 21 : 11)),
+                    BigDecimal.valueOf(1 + random.nextInt(10)),
+                    random.nextBoolean() ? Order.Type.BUY : Order.Type.SELL);
+            if (random.nextInt(5) == 0) {
+                order.setDisplayQuantity(BigDecimal.valueOf(1 + random.nextInt(order.getQuantity().intValue())));
+            }
+
+            submittedOrders.add(new SubmittedOrder(order, order.getQuantity()));
+            orderBook.addOrder(order);
+            ownOrderIds.add(order.getId());
+        }
+    }
+
+    private void assertNoOrderIsOverFilled(String message) {
+        submittedOrders.forEach(submitted -> {
+            final var order = submitted.order();
+            assertTrue(order.getQuantity().signum() >= 0, "%s order=%s".formatted(message, order));
+            assertTrue(order.getReserveQuantity() == null || order.getReserveQuantity().signum() >= 0, "%s order=%s".formatted(message, order));
+            assertTrue(order.getOpenQuantity().compareTo(submitted.originalQuantity()) <= 0, "%s order=%s".formatted(message, order));
+        });
+    }
+
+    // every simple leg traded by a composite order is taken from the opposite side of the simple book
+    private void assertQuantityIsConserved(String message) {
+        final var filledCompositeQuantityPerType = filledQuantityPerType(COMPOSITE_INSTRUMENT_ID);
+        for (final var instrumentId : SIMPLE_INSTRUMENT_IDS) {
+            final var filledQuantityPerType = filledQuantityPerType(instrumentId);
+            final var compositeQuantityPerType = LEG_INSTRUMENT_IDS.contains(instrumentId)
+                    ? filledCompositeQuantityPerType
+                    : Map.of(Order.Type.BUY, BigDecimal.ZERO, Order.Type.SELL, BigDecimal.ZERO);
+            final var bought = filledQuantityPerType.get(Order.Type.BUY).add(compositeQuantityPerType.get(Order.Type.BUY));
+            final var sold = filledQuantityPerType.get(Order.Type.SELL).add(compositeQuantityPerType.get(Order.Type.SELL));
+            assertEquals(0, bought.compareTo(sold), "%s instrumentId=%s bought=%s sold=%s".formatted(message, instrumentId, bought, sold));
+            assertEquals(0, bought.compareTo(tradedVolume(instrumentId)), "%s instrumentId=%s traded volume".formatted(message, instrumentId));
+        }
+        final var compositeFilled = filledCompositeQuantityPerType.get(Order.Type.BUY).add(filledCompositeQuantityPerType.get(Order.Type.SELL));
+        assertEquals(0, compositeFilled.compareTo(tradedVolume(COMPOSITE_INSTRUMENT_ID)), "%s instrumentId=%s traded volume".formatted(message, COMPOSITE_INSTRUMENT_ID));
+    }
+
+    // a double removal releases the exposure twice, a lost one never releases it
+    private void assertRestingOrdersAreConsistent(String message) {
+        final var restingOrderIds = new HashSet<String>();
+        for (final var instrumentId : allInstrumentIds()) {
+            restingOrders(instrumentId).forEach(order -> restingOrderIds.add(order.getId()));
+        }
+
+        final var openQuantityPerTraderId = new HashMap<String, BigDecimal>();
+        submittedOrders.stream().map(SubmittedOrder::order).forEach(order -> {
+            final var resting = restingOrderIds.contains(order.getId());
+            assertEquals(resting, orderBook.containsOrder(order), "%s order=%s".formatted(message, order));
+            if (order.getOpenQuantity().signum() == 0) {
+                assertFalse(resting, "%s filled order=%s is still in the book".formatted(message, order));
+            }
+            if (resting) {
+                openQuantityPerTraderId.merge(order.getTraderId(), order.getOpenQuantity(), BigDecimal::add);
+            }
+        });
+
+        for (final var traderId : TRADER_IDS) {
+            final var expected = openQuantityPerTraderId.getOrDefault(traderId, BigDecimal.ZERO);
+            assertEquals(0, expected.compareTo(riskCheck.getOpenQuantity(traderId)),
+                    "%s traderId=%s expected=%s actual=%s".formatted(message, traderId, expected, riskCheck.getOpenQuantity(traderId)));
+        }
+    }
+
+    private void assertPricesMatchTopOfBook(String message) {
+        for (final var instrumentId : allInstrumentIds()) {
+            final var orders = restingOrders(instrumentId);
+            final var bestBuyPrice = bestPrice(orders, Order.Type.BUY, Comparator.reverseOrder());
+            final var bestSellPrice = bestPrice(orders, Order.Type.SELL, Comparator.naturalOrder());
+            if (bestBuyPrice != null && bestSellPrice != null && !instrumentId.equals(COMPOSITE_INSTRUMENT_ID)) {
+                assertTrue(bestBuyPrice.compareTo(bestSellPrice) < 0, "%s instrumentId=%s book is crossed".formatted(message, instrumentId));
+            }
+
+            final BigDecimal expectedPrice;
+            if (bestBuyPrice == null || bestSellPrice == null) {
+                expectedPrice = bestBuyPrice != null ? bestBuyPrice : bestSellPrice != null ? bestSellPrice : BigDecimal.ZERO;
+            } else {
+                expectedPrice = bestBuyPrice.add(bestSellPrice).divide(BigDecimal.valueOf(2), RoundingMode.HALF_EVEN);
+            }
+            final var actualPrice = financialInstrumentsService.get(instrumentId).getPrice();
+            assertEquals(0, expectedPrice.compareTo(actualPrice),
+                    "%s instrumentId=%s expected=%s actual=%s".formatted(message, instrumentId, expectedPrice, actualPrice));
+        }
+    }
+
+    private void assertCompositeFairValueMatchesLegs(String message) {
+        BigDecimal fairBid = BigDecimal.ZERO;
+        BigDecimal fairAsk = BigDecimal.ZERO;
+        for (final var instrumentId : LEG_INSTRUMENT_IDS) {
+            final var orders = restingOrders(instrumentId);
+            final var bestBuyPrice = bestPrice(orders, Order.Type.BUY, Comparator.reverseOrder());
+            final var bestSellPrice = bestPrice(orders, Order.Type.SELL, Comparator.naturalOrder());
+            fairBid = fairBid == null || bestBuyPrice == null ? null : fairBid.add(bestBuyPrice);
+            fairAsk = fairAsk == null || bestSellPrice == null ? null : fairAsk.add(bestSellPrice);
+        }
+
+        final var fairValue = financialInstrumentsService.getFairValue(COMPOSITE_INSTRUMENT_ID);
+        assertEquals(0, ObjectUtils.compare(fairBid, fairValue.bid()), "%s expected=%s actual=%s".formatted(message, fairBid, fairValue));
+        assertEquals(0, ObjectUtils.compare(fairAsk, fairValue.ask()), "%s expected=%s actual=%s".formatted(message, fairAsk, fairValue));
+    }
+
+    private Map<Order.Type, BigDecimal> filledQuantityPerType(String instrumentId) {
+        final var filledQuantityPerType = new HashMap<>(Map.of(Order.Type.BUY, BigDecimal.ZERO, Order.Type.SELL, BigDecimal.ZERO));
+        submittedOrders.forEach(submitted -> {
+            final var order = submitted.order();
+            if (order.getFinancialInstrumentId().equals(instrumentId)) {
+                filledQuantityPerType.merge(order.getType(), submitted.originalQuantity().subtract(order.getOpenQuantity()), BigDecimal::add);
+            }
+        });
+        return filledQuantityPerType;
+    }
+
+    private BigDecimal tradedVolume(String instrumentId) {
+        return barAggregator.getBars(instrumentId, BarInterval.ONE_HOUR, 1)
+                .stream()
+                .map(Bar::volume)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    private List<Order> restingOrders(String instrumentId) {
+        final var orders = new ArrayList<Order>();
+        String pageToken = null;
+        do {
+            final var page = orderBook.findOrdersByFinancialInstrumentId(instrumentId, pageToken, 100);
+            orders.addAll(page.orders());
+            pageToken = page.nextPageToken();
+        } while (pageToken != null);
+        return orders;
+    }
+
+    private static BigDecimal bestPrice(List<Order> orders, Order.Type type, Comparator<BigDecimal> comparator) {
+        return orders.stream()
+                .filter(order -> order.getType() == type)
+                .map(Order::getPrice)
+                .min(comparator)
+                .orElse(null);
+    }
+
+    private static List<String> allInstrumentIds() {
+        final var instrumentIds = new ArrayList<>(SIMPLE_INSTRUMENT_IDS);
+        instrumentIds.add(COMPOSITE_INSTRUMENT_ID);
+        return instrumentIds;
+    }
+
+    // submitted orders are the live objects held by the book, so their original quantity is kept aside
+    private record SubmittedOrder(Order order, BigDecimal originalQuantity) {
+    }
+}
@@ -1,23 +1,31 @@
 package com.medvedev.vegatest.order;
 
+import com.medvedev.vegatest.MutableClock;
 import com.medvedev.vegatest.exception.DuplicateEntryException;
 import com.medvedev.vegatest.financialinstrument.CompositeFinancialInstrument;
 import com.medvedev.vegatest.financialinstrument.FinancialInstrument;
 import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsService;
+import com.medvedev.vegatest.marketdata.BarAggregator;
+import com.medvedev.vegatest.risk.PreTradeRiskCheck;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class OrderBookTest {
@@ -28,10 +36,17 @@ public class OrderBookTest {
 
     private final OrderValidator orderValidator = Mockito.mock(OrderValidator.class);
 
+    private final PreTradeRiskCheck riskCheck = Mockito.mock(PreTradeRiskCheck.class);
+
+    private final BarAggregator barAggregator = Mockito.mock(BarAggregator.class);
+
+    private MutableClock clock;
+
     @BeforeEach
     void setUp() {
-        Mockito.reset(financialInstrumentsService, orderValidator);
-        orderBook = new OrderBook(orderValidator, financialInstrumentsService);
+        Mockito.reset(financialInstrumentsService, orderValidator, riskCheck, barAggregator);
+        clock = new MutableClock(Instant.parse("2024-01-02T10:00:00Z"));
+        orderBook = anOrderBook(SelfTradePreventionMode.NONE);
     }
 
     @Test
@@ -72,6 +87,21 @@ public class OrderBookTest {
 
         assertEquals(0, sellOrder.getQuantity().compareTo(BigDecimal.ZERO), "Sell order quantity should be zero after trade");
         assertEquals(0, buyOrder.getQuantity().compareTo(new BigDecimal("5")), "Buy order quantity should be reduced by the traded amount");
+        verify(barAggregator).onTrade("FI123", new BigDecimal("100.00"), new BigDecimal("5"));
+    }
+
+    @Test
+    void testExecuteTradeWhenBarAggregationFails() {
+        var buyOrder = anOrder("buyOrder2", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        var sellOrder = anOrder("sellOrder2", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("10"));
+        doThrow(IllegalStateException.class).when(barAggregator).onTrade("FI123", new BigDecimal("100.00"), new BigDecimal("10"));
+
+        orderBook.addOrderWithoutProcessing(buyOrder);
+        orderBook.addOrder(sellOrder);
+
+        assertFalse(orderBook.containsOrder(buyOrder), "Trade should be applied although its bar could not be recorded");
+        assertFalse(orderBook.containsOrder(sellOrder), "Trade should be applied although its bar could not be recorded");
+        verify(financialInstrumentsService).updatePrice("FI123", BigDecimal.ZERO);
     }
 
     @Test
@@ -106,6 +136,125 @@ public class OrderBookTest {
         assertFalse(orderBook.containsOrder(order), "Order should be removed after cancellation");
     }
 
+    @Test
+    void testCancelOrderUpdatesInstrumentPrice() {
+        var bestOrder = anOrder("order1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        var nextOrder = anOrder("order2", Order.Type.BUY, new BigDecimal("90.00"), new BigDecimal("10"));
+        orderBook.addOrderWithoutProcessing(bestOrder);
+        orderBook.addOrderWithoutProcessing(nextOrder);
+
+        orderBook.cancelOrder(bestOrder.getId());
+
+        verify(financialInstrumentsService).updatePrice("FI123", new BigDecimal("90.00"));
+    }
+
+    @Test
+    void testCancelOrderReleasesRiskExposure() {
+        var order = anOrder("order3", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        orderBook.addOrderWithoutProcessing(order);
+        orderBook.cancelOrder(order.getId());
+        verify(riskCheck).release(order, new BigDecimal("10"));
+    }
+
+    @Test
+    void testCancelAllByTraderId() {
+        var order1 = anOrder("order1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        var order2 = anOrder("order2", Order.Type.BUY, new BigDecimal("99.00"), new BigDecimal("10"));
+        var order3 = anOrder("order3", Order.Type.SELL, new BigDecimal("120.00"), new BigDecimal("10"));
+        order3.setFinancialInstrumentId("FI124");
+        var otherTraderOrder = anOrder("order4", Order.Type.BUY, new BigDecimal("98.00"), new BigDecimal("10"));
+        otherTraderOrder.setTraderId("Trader456");
+        orderBook.addOrder(order1);
+        orderBook.addOrder(order2);
+        orderBook.addOrder(order3);
+        orderBook.addOrder(otherTraderOrder);
+
+        assertEquals(3, orderBook.cancelAllByTraderId("Trader123"));
+
+        assertFalse(orderBook.containsOrder(order1));
+        assertFalse(orderBook.containsOrder(order2));
+        assertFalse(orderBook.containsOrder(order3));
+        assertTrue(orderBook.containsOrder(otherTraderOrder));
+        assertTrue(orderBook.findOrdersByTraderId("Trader123", null, 10).orders().isEmpty());
+        verify(riskCheck).release(order1, new BigDecimal("10"));
+        verify(riskCheck).release(order3, new BigDecimal("10"));
+        verify(financialInstrumentsService).updatePrice("FI123", new BigDecimal("98.00"));
+    }
+
+    @Test
+    void testCancelAllByFinancialInstrumentId() {
+        var buyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("110.00"), new BigDecimal("10"));
+        var buyStopOrder = anOrder("buyStopOrder", Order.Type.BUY, null, new BigDecimal("5"));
+        buyStopOrder.setStopPrice(new BigDecimal("120.00"));
+        var otherInstrumentOrder = anOrder("buyOrder2", Order.Type.BUY, new BigDecimal("50.00"), new BigDecimal("10"));
+        otherInstrumentOrder.setFinancialInstrumentId("FI124");
+        orderBook.addOrder(buyOrder);
+        orderBook.addOrder(sellOrder);
+        orderBook.addOrder(buyStopOrder);
+        orderBook.addOrder(otherInstrumentOrder);
+
+        assertEquals(3, orderBook.cancelAllByFinancialInstrumentId("FI123"));
+
+        assertFalse(orderBook.containsOrder(buyStopOrder));
+        assertTrue(orderBook.containsOrder(otherInstrumentOrder));
+        assertTrue(orderBook.findOrdersByFinancialInstrumentId("FI123", null, 10).orders().isEmpty());
+        verify(riskCheck).releaseAll(List.of(buyOrder, buyStopOrder, sellOrder));
+        verify(financialInstrumentsService).updatePrice("FI123", BigDecimal.ZERO);
+        assertEquals(List.of("buyOrder2"), orderBook.findOrdersByTraderId("Trader123", null, 10).orders().stream().map(Order::getId).toList());
+
+        var newSellOrder = anOrder("sellOrder2", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("10"));
+        orderBook.addOrder(newSellOrder);
+        assertTrue(orderBook.containsOrder(newSellOrder), "Cancelled orders should not trade with new ones");
+    }
+
+    @Test
+    void testCancelAllCancelsEveryOrder() {
+        var buyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        buyOrder.setTimeInForce(Order.TimeInForce.GTD);
+        buyOrder.setExpireTime(Instant.parse("2024-01-02T10:00:01Z"));
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("50.00"), new BigDecimal("10"));
+        sellOrder.setFinancialInstrumentId("FI124");
+        sellOrder.setTraderId("Trader456");
+        var buyStopOrder = anOrder("buyStopOrder", Order.Type.BUY, null, new BigDecimal("5"));
+        buyStopOrder.setStopPrice(new BigDecimal("120.00"));
+        orderBook.addOrder(buyOrder);
+        orderBook.addOrder(sellOrder);
+        orderBook.addOrder(buyStopOrder);
+
+        assertEquals(3, orderBook.cancelAll());
+
+        assertFalse(orderBook.containsOrder(buyOrder));
+        assertFalse(orderBook.containsOrder(sellOrder));
+        assertFalse(orderBook.containsOrder(buyStopOrder));
+        assertTrue(orderBook.findOrdersByTraderId("Trader456", null, 10).orders().isEmpty());
+
+        var sameIdOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("90.00"), new BigDecimal("10"));
+        orderBook.addOrder(sameIdOrder);
+        clock.advanceMillis(2_000);
+        orderBook.expireOrders();
+        assertTrue(orderBook.containsOrder(sameIdOrder), "Expiry of a cancelled order should not remove a new one");
+    }
+
+    @Test
+    void testCancelAllReleasesRiskExposure() {
+        var order = anOrder("order1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        orderBook.addOrder(order);
+
+        orderBook.cancelAll();
+
+        verify(riskCheck).releaseAll(List.of(order));
+    }
+
+    @Test
+    void testDuplicateOrderReleasesRiskReservation() {
+        var order = anOrder("order1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        orderBook.addOrderWithoutProcessing(order);
+        assertThrows(DuplicateEntryException.class, () -> orderBook.addOrder(order));
+        verify(riskCheck).check(order);
+        verify(riskCheck).rollback(order);
+    }
+
     @Test
     void testInvalidOrderThrowsException() {
         var invalidOrder = anOrder("invalidOrder", Order.Type.BUY, new BigDecimal("-100.00"), new BigDecimal("10"));
@@ -117,6 +266,7 @@ public class OrderBookTest {
     void testCompositeOrderProcessing() {
         CompositeFinancialInstrument compositeInstrument = aCompositeFinancialInstrument("compositeFI", List.of("FI123", "FI124"));
         when(financialInstrumentsService.get("compositeFI")).thenReturn(compositeInstrument);
+        quoteLegs(compositeInstrument, new BigDecimal("100.00"));
 
         var compositeBuyOrder = anOrder("compositeBuyOrder", Order.Type.BUY, new BigDecimal("200.00"), new BigDecimal("10"));
         compositeBuyOrder.setFinancialInstrumentId("compositeFI");
@@ -135,12 +285,16 @@ public class OrderBookTest {
         assertFalse(orderBook.containsOrder(compositeBuyOrder), "Composite Buy order should be matched and removed");
         assertFalse(orderBook.containsOrder(sellOrderFI123), "Sell order for FI123 should be matched and removed");
         assertFalse(orderBook.containsOrder(sellOrderFI124), "Sell order for FI124 should be matched and removed");
+        verify(barAggregator).onTrade("FI123", new BigDecimal("100.00"), new BigDecimal("10"));
+        verify(barAggregator).onTrade("FI124", new BigDecimal("100.00"), new BigDecimal("10"));
+        verify(barAggregator).onTrade("compositeFI", new BigDecimal("200.00"), new BigDecimal("10"));
     }
 
     @Test
     void testCompositeOrderProcessingWhenChildInstrumentUpdates() {
         CompositeFinancialInstrument compositeInstrument = aCompositeFinancialInstrument("compositeFI", List.of("FI123", "FI124"));
         when(financialInstrumentsService.get("compositeFI")).thenReturn(compositeInstrument);
+        quoteLegs(compositeInstrument, new BigDecimal("100.00"));
         when(financialInstrumentsService.findDependentCompositeInstruments("FI124")).thenReturn(Set.of(compositeInstrument.getId()));
 
         var compositeBuyOrder = anOrder("compositeBuyOrder", Order.Type.BUY, new BigDecimal("200.00"), new BigDecimal("10"));
@@ -162,12 +316,477 @@ public class OrderBookTest {
         assertFalse(orderBook.containsOrder(sellOrderFI124), "Sell order for FI124 should be matched and removed");
     }
 
+    @Test
+    void testCompositeOrderIsNotMatchedAboveLegsFairValue() {
+        CompositeFinancialInstrument compositeInstrument = aCompositeFinancialInstrument("compositeFI", List.of("FI123", "FI124"));
+        when(financialInstrumentsService.get("compositeFI")).thenReturn(compositeInstrument);
+        quoteLegs(compositeInstrument, new BigDecimal("101.00"));
+
+        var compositeBuyOrder = anOrder("compositeBuyOrder", Order.Type.BUY, new BigDecimal("200.00"), new BigDecimal("10"));
+        compositeBuyOrder.setFinancialInstrumentId("compositeFI");
+        var sellOrderFI123 = anOrder("sellOrderFI123", Order.Type.SELL, new BigDecimal("101.00"), new BigDecimal("10"));
+        sellOrderFI123.setFinancialInstrumentId("FI123");
+        var sellOrderFI124 = anOrder("sellOrderFI124", Order.Type.SELL, new BigDecimal("101.00"), new BigDecimal("10"));
+        sellOrderFI124.setFinancialInstrumentId("FI124");
+
+        orderBook.addOrderWithoutProcessing(sellOrderFI123);
+        orderBook.addOrderWithoutProcessing(sellOrderFI124);
+        orderBook.addOrder(compositeBuyOrder);
+
+        assertTrue(orderBook.containsOrder(compositeBuyOrder), "Composite Buy order should wait for cheaper legs");
+        assertTrue(orderBook.containsOrder(sellOrderFI123));
+        assertTrue(orderBook.containsOrder(sellOrderFI124));
+    }
+
+    @Test
+    void testTopOfBookIsPublishedForCompositeFairValue() {
+        var buyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+
+        orderBook.addOrder(buyOrder);
+
+        verify(financialInstrumentsService).updateTopOfBook("FI123", new BigDecimal("100.00"), null);
+    }
+
+    @Test
+    void testCompositeOrderWithoutPriceIsNotOverFilled() {
+        CompositeFinancialInstrument compositeInstrument = aCompositeFinancialInstrument("compositeFI", List.of("FI123", "FI124"));
+        when(financialInstrumentsService.get("compositeFI")).thenReturn(compositeInstrument);
+        quoteLegs(compositeInstrument, new BigDecimal("100.00"));
+
+        var compositeBuyOrder = anOrder("compositeBuyOrder", Order.Type.BUY, null, new BigDecimal("4"));
+        compositeBuyOrder.setFinancialInstrumentId("compositeFI");
+        var sellOrderFI123 = anOrder("sellOrderFI123", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("10"));
+        sellOrderFI123.setFinancialInstrumentId("FI123");
+        var sellOrderFI124 = anOrder("sellOrderFI124", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("10"));
+        sellOrderFI124.setFinancialInstrumentId("FI124");
+
+        orderBook.addOrderWithoutProcessing(sellOrderFI123);
+        orderBook.addOrderWithoutProcessing(sellOrderFI124);
+        orderBook.addOrder(compositeBuyOrder);
+
+        assertFalse(orderBook.containsOrder(compositeBuyOrder));
+        assertEquals(0, compositeBuyOrder.getQuantity().signum(), "Composite order should not be filled over its quantity");
+        assertEquals(0, sellOrderFI123.getQuantity().compareTo(new BigDecimal("6")));
+        assertEquals(0, sellOrderFI124.getQuantity().compareTo(new BigDecimal("6")));
+    }
+
+    @Test
+    void testCompositeSellOrderIsMatchedWithoutCompositeBuyOrders() {
+        CompositeFinancialInstrument compositeInstrument = aCompositeFinancialInstrument("compositeFI", List.of("FI123", "FI124"));
+        when(financialInstrumentsService.get("compositeFI")).thenReturn(compositeInstrument);
+        quoteLegs(compositeInstrument, new BigDecimal("100.00"));
+
+        var compositeSellOrder = anOrder("compositeSellOrder", Order.Type.SELL, new BigDecimal("200.00"), new BigDecimal("10"));
+        compositeSellOrder.setFinancialInstrumentId("compositeFI");
+        var buyOrderFI123 = anOrder("buyOrderFI123", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        buyOrderFI123.setFinancialInstrumentId("FI123");
+        var buyOrderFI124 = anOrder("buyOrderFI124", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        buyOrderFI124.setFinancialInstrumentId("FI124");
+
+        orderBook.addOrderWithoutProcessing(buyOrderFI123);
+        orderBook.addOrderWithoutProcessing(buyOrderFI124);
+        orderBook.addOrder(compositeSellOrder);
+
+        assertFalse(orderBook.containsOrder(compositeSellOrder), "Composite Sell order should be matched and removed");
+        assertFalse(orderBook.containsOrder(buyOrderFI123));
+        assertFalse(orderBook.containsOrder(buyOrderFI124));
+    }
+
+    @Test
+    void testFindOrdersByTraderIdWithPaging() {
+        var order1 = anOrder("order1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        var order2 = anOrder("order2", Order.Type.BUY, new BigDecimal("99.00"), new BigDecimal("10"));
+        var otherTraderOrder = anOrder("order3", Order.Type.BUY, new BigDecimal("98.00"), new BigDecimal("10"));
+        otherTraderOrder.setTraderId("Trader456");
+
+        orderBook.addOrderWithoutProcessing(order1);
+        orderBook.addOrderWithoutProcessing(order2);
+        orderBook.addOrderWithoutProcessing(otherTraderOrder);
+
+        var firstPage = orderBook.findOrdersByTraderId("Trader123", null, 1);
+        assertEquals(List.of("order1"), firstPage.orders().stream().map(Order::getId).toList());
+        assertEquals("order1", firstPage.nextPageToken());
+
+        var secondPage = orderBook.findOrdersByTraderId("Trader123", firstPage.nextPageToken(), 1);
+        assertEquals(List.of("order2"), secondPage.orders().stream().map(Order::getId).toList());
+        assertNull(secondPage.nextPageToken());
+    }
+
+    @Test
+    void testFindOrdersByFinancialInstrumentIdReturnsOnlyOpenOrders() {
+        var buyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("4"));
+        var cancelledOrder = anOrder("buyOrder2", Order.Type.BUY, new BigDecimal("90.00"), new BigDecimal("10"));
+
+        orderBook.addOrderWithoutProcessing(buyOrder);
+        orderBook.addOrderWithoutProcessing(cancelledOrder);
+        orderBook.cancelOrder(cancelledOrder.getId());
+        orderBook.addOrder(sellOrder);
+
+        var page = orderBook.findOrdersByFinancialInstrumentId("FI123", null, 10);
+        assertEquals(List.of("buyOrder1"), page.orders().stream().map(Order::getId).toList());
+        assertEquals(0, page.orders().get(0).getQuantity().compareTo(new BigDecimal("6")), "Snapshot should reflect the partial fill");
+        assertNull(page.nextPageToken());
+    }
+
+    @Test
+    void testOrdersWithSamePriceKeepTimePriority() {
+        var firstBuyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("5"));
+        var secondBuyOrder = anOrder("buyOrder2", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("5"));
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("5"));
+        sellOrder.setTraderId("Trader456");
+
+        orderBook.addOrderWithoutProcessing(firstBuyOrder);
+        orderBook.addOrderWithoutProcessing(secondBuyOrder);
+        orderBook.addOrder(sellOrder);
+
+        assertFalse(orderBook.containsOrder(firstBuyOrder), "Earlier order at the same price should be matched first");
+        assertTrue(orderBook.containsOrder(secondBuyOrder), "Later order at the same price should stay in the book");
+    }
+
+    @Test
+    void testSelfTradePreventionCancelNewest() {
+        orderBook = anOrderBook(SelfTradePreventionMode.CANCEL_NEWEST);
+        var buyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("95.00"), new BigDecimal("5"));
+
+        orderBook.addOrderWithoutProcessing(buyOrder);
+        orderBook.addOrder(sellOrder);
+
+        assertTrue(orderBook.containsOrder(buyOrder), "Resting order should stay in the book");
+        assertFalse(orderBook.containsOrder(sellOrder), "Incoming order should be cancelled");
+        assertEquals(0, buyOrder.getQuantity().compareTo(new BigDecimal("10")), "No trade should be executed");
+    }
+
+    @Test
+    void testSelfTradePreventionCancelOldestContinuesMatching() {
+        orderBook = anOrderBook(SelfTradePreventionMode.CANCEL_OLDEST);
+        var ownBuyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        var otherBuyOrder = anOrder("buyOrder2", Order.Type.BUY, new BigDecimal("99.00"), new BigDecimal("10"));
+        otherBuyOrder.setTraderId("Trader456");
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("95.00"), new BigDecimal("5"));
+
+        orderBook.addOrderWithoutProcessing(ownBuyOrder);
+        orderBook.addOrderWithoutProcessing(otherBuyOrder);
+        orderBook.addOrder(sellOrder);
+
+        assertFalse(orderBook.containsOrder(ownBuyOrder), "Resting order of the same trader should be cancelled");
+        assertFalse(orderBook.containsOrder(sellOrder), "Incoming order should trade with the next level");
+        assertEquals(0, otherBuyOrder.getQuantity().compareTo(new BigDecimal("5")));
+    }
+
+    @Test
+    void testSelfTradePreventionDecrementBoth() {
+        orderBook = anOrderBook(SelfTradePreventionMode.DECREMENT_BOTH);
+        var buyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("95.00"), new BigDecimal("4"));
+
+        orderBook.addOrderWithoutProcessing(buyOrder);
+        orderBook.addOrder(sellOrder);
+
+        assertTrue(orderBook.containsOrder(buyOrder));
+        assertFalse(orderBook.containsOrder(sellOrder));
+        assertEquals(0, buyOrder.getQuantity().compareTo(new BigDecimal("6")), "Both orders should be decremented by the smaller quantity");
+        verify(riskCheck).release(buyOrder, new BigDecimal("4"));
+    }
+
+    @Test
+    void testCompositeSelfTradePreventionCancelNewest() {
+        orderBook = anOrderBook(SelfTradePreventionMode.CANCEL_NEWEST);
+        CompositeFinancialInstrument compositeInstrument = aCompositeFinancialInstrument("compositeFI", List.of("FI123", "FI124"));
+        when(financialInstrumentsService.get("compositeFI")).thenReturn(compositeInstrument);
+        quoteLegs(compositeInstrument, new BigDecimal("100.00"));
+
+        var compositeBuyOrder = anOrder("compositeBuyOrder", Order.Type.BUY, new BigDecimal("200.00"), new BigDecimal("10"));
+        compositeBuyOrder.setFinancialInstrumentId("compositeFI");
+
+        var sellOrderFI123 = anOrder("sellOrderFI123", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("10"));
+
+        var sellOrderFI124 = anOrder("sellOrderFI124", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("10"));
+        sellOrderFI124.setFinancialInstrumentId("FI124");
+        sellOrderFI124.setTraderId("Trader456");
+
+        orderBook.addOrderWithoutProcessing(sellOrderFI123);
+        orderBook.addOrderWithoutProcessing(sellOrderFI124);
+
+        orderBook.addOrder(compositeBuyOrder);
+
+        assertFalse(orderBook.containsOrder(compositeBuyOrder), "Composite order should be cancelled as the newest one");
+        assertTrue(orderBook.containsOrder(sellOrderFI123));
+        assertTrue(orderBook.containsOrder(sellOrderFI124));
+    }
+
+    @Test
+    void testStopOrderTriggeredImmediatelyWhenPriceAlreadyReached() {
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("110.00"), new BigDecimal("10"));
+        sellOrder.setTraderId("Trader456");
+        var buyStopOrder = anOrder("buyStopOrder", Order.Type.BUY, null, new BigDecimal("5"));
+        buyStopOrder.setStopPrice(new BigDecimal("105.00"));
+
+        orderBook.addOrderWithoutProcessing(sellOrder);
+        orderBook.addOrder(buyStopOrder);
+
+        assertFalse(orderBook.containsOrder(buyStopOrder), "Stop order should be triggered and executed");
+        assertEquals(0, sellOrder.getQuantity().compareTo(new BigDecimal("5")));
+    }
+
+    @Test
+    void testStopOrderTriggeredByPriceUpdate() {
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("110.00"), new BigDecimal("10"));
+        sellOrder.setTraderId("Trader456");
+        var higherSellOrder = anOrder("sellOrder2", Order.Type.SELL, new BigDecimal("130.00"), new BigDecimal("10"));
+        higherSellOrder.setTraderId("Trader456");
+        var buyStopOrder = anOrder("buyStopOrder", Order.Type.BUY, null, new BigDecimal("5"));
+        buyStopOrder.setStopPrice(new BigDecimal("120.00"));
+        var buyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("110.00"), new BigDecimal("10"));
+        buyOrder.setTraderId("Trader789");
+
+        orderBook.addOrderWithoutProcessing(sellOrder);
+        orderBook.addOrderWithoutProcessing(higherSellOrder);
+        orderBook.addOrder(buyStopOrder);
+
+        assertTrue(orderBook.containsOrder(buyStopOrder), "Stop order should wait for its stop price");
+        assertEquals(0, higherSellOrder.getQuantity().compareTo(new BigDecimal("10")));
+
+        orderBook.addOrder(buyOrder);
+
+        assertFalse(orderBook.containsOrder(sellOrder));
+        assertFalse(orderBook.containsOrder(buyStopOrder), "Stop order should be triggered once the price moved to 130");
+        assertEquals(0, higherSellOrder.getQuantity().compareTo(new BigDecimal("5")));
+    }
+
+    @Test
+    void testStopOrderTriggeredByProcessingOrderBook() {
+        var buyStopOrder = anOrder("buyStopOrder", Order.Type.BUY, null, new BigDecimal("5"));
+        buyStopOrder.setStopPrice(new BigDecimal("120.00"));
+        var buyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("110.00"), new BigDecimal("5"));
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("110.00"), new BigDecimal("5"));
+        sellOrder.setTraderId("Trader456");
+        var higherSellOrder = anOrder("sellOrder2", Order.Type.SELL, new BigDecimal("130.00"), new BigDecimal("10"));
+        higherSellOrder.setTraderId("Trader456");
+
+        orderBook.addOrder(buyStopOrder);
+        orderBook.addOrderWithoutProcessing(buyOrder);
+        orderBook.addOrderWithoutProcessing(sellOrder);
+        orderBook.addOrderWithoutProcessing(higherSellOrder);
+        assertTrue(orderBook.containsOrder(buyStopOrder), "Stop order should wait for its stop price");
+
+        orderBook.processOrderBook("FI123"); // the trade leaves 130 as the only price
+
+        assertFalse(orderBook.containsOrder(buyStopOrder), "Stop order should be placed before processing returns");
+        assertEquals(0, higherSellOrder.getQuantity().compareTo(new BigDecimal("5")));
+    }
+
+    @Test
+    void testStopOrderTriggeredByOrderAddedWithoutProcessing() {
+        var buyStopOrder = anOrder("buyStopOrder", Order.Type.BUY, null, new BigDecimal("5"));
+        buyStopOrder.setStopPrice(new BigDecimal("120.00"));
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("130.00"), new BigDecimal("10"));
+        sellOrder.setTraderId("Trader456");
+
+        orderBook.addOrder(buyStopOrder);
+        orderBook.addOrderWithoutProcessing(sellOrder);
+
+        assertFalse(orderBook.containsOrder(buyStopOrder));
+        assertEquals(0, sellOrder.getQuantity().compareTo(new BigDecimal("5")));
+    }
+
+    @Test
+    void testTriggeredStopLimitOrderQueuesBehindRestingOrderOfSamePrice() {
+        var buyStopLimitOrder = anOrder("buyStopOrder", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("5"));
+        buyStopLimitOrder.setStopPrice(new BigDecimal("105.00"));
+        var buyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("5"));
+        buyOrder.setTraderId("Trader456");
+        var higherSellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("110.00"), new BigDecimal("10"));
+        higherSellOrder.setTraderId("Trader789");
+        var sellOrder = anOrder("sellOrder2", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("5"));
+        sellOrder.setTraderId("Trader789");
+
+        orderBook.addOrder(buyStopLimitOrder);
+        orderBook.addOrder(buyOrder);
+        orderBook.addOrder(higherSellOrder); // moves the price to 105
+        orderBook.addOrder(sellOrder);
+
+        assertFalse(orderBook.containsOrder(buyOrder), "Order resting before the trigger should keep its time priority");
+        assertTrue(orderBook.containsOrder(buyStopLimitOrder));
+        assertEquals(0, buyStopLimitOrder.getQuantity().compareTo(new BigDecimal("5")));
+    }
+
+    @Test
+    void testTriggeredStopLimitOrderTradesAtRestingOrderPrice() {
+        var buyStopLimitOrder = anOrder("buyStopOrder", Order.Type.BUY, new BigDecimal("112.00"), new BigDecimal("5"));
+        buyStopLimitOrder.setStopPrice(new BigDecimal("105.00"));
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("110.00"), new BigDecimal("10"));
+        sellOrder.setTraderId("Trader456");
+
+        orderBook.addOrder(buyStopLimitOrder);
+        orderBook.addOrder(sellOrder);
+
+        assertFalse(orderBook.containsOrder(buyStopLimitOrder));
+        verify(barAggregator).onTrade("FI123", new BigDecimal("110.00"), new BigDecimal("5"));
+    }
+
+    @Test
+    void testCancelStopOrder() {
+        var buyStopOrder = anOrder("buyStopOrder", Order.Type.BUY, null, new BigDecimal("5"));
+        buyStopOrder.setStopPrice(new BigDecimal("120.00"));
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("130.00"), new BigDecimal("10"));
+        sellOrder.setTraderId("Trader456");
+
+        orderBook.addOrder(buyStopOrder);
+        orderBook.cancelOrder(buyStopOrder.getId());
+        orderBook.addOrder(sellOrder);
+
+        assertFalse(orderBook.containsOrder(buyStopOrder));
+        assertEquals(0, sellOrder.getQuantity().compareTo(new BigDecimal("10")), "Cancelled stop order should never trade");
+    }
+
+    @Test
+    void testGoodTillDateOrderExpires() {
+        var order = anOrder("order1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        order.setTimeInForce(Order.TimeInForce.GTD);
+        order.setExpireTime(Instant.parse("2024-01-02T10:00:05Z"));
+        var goodTillCancelledOrder = anOrder("order2", Order.Type.BUY, new BigDecimal("99.00"), new BigDecimal("10"));
+
+        orderBook.addOrder(order);
+        orderBook.addOrder(goodTillCancelledOrder);
+
+        clock.advanceMillis(4_000);
+        orderBook.expireOrders();
+        assertTrue(orderBook.containsOrder(order), "Order should rest until its expire time");
+
+        clock.advanceMillis(2_000);
+        orderBook.expireOrders();
+        assertFalse(orderBook.containsOrder(order), "Order should be removed after its expire time");
+        assertTrue(orderBook.containsOrder(goodTillCancelledOrder));
+        assertTrue(orderBook.findOrdersByTraderId("Trader123", null, 10).orders().stream().noneMatch(o -> o.getId().equals("order1")));
+        verify(riskCheck).release(order, new BigDecimal("10"));
+    }
+
+    @Test
+    void testDayOrderExpiresAtEndOfTradingDay() {
+        var order = anOrder("order1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        order.setTimeInForce(Order.TimeInForce.DAY);
+
+        orderBook.addOrder(order);
+        assertEquals(Instant.parse("2024-01-02T17:00:00Z"), order.getExpireTime());
+
+        clock.advanceMillis(7 * 3_600_000L);
+        orderBook.expireOrders();
+        assertFalse(orderBook.containsOrder(order));
+    }
+
+    @Test
+    void testDayOrderExpiresAtEndOfTradingDayInExchangeTimeZone() {
+        var orderBook = new OrderBook(orderValidator, riskCheck, financialInstrumentsService, barAggregator,
+                new OrderBookProperties(SelfTradePreventionMode.NONE, "17:30:00", ZoneId.of("America/New_York"), 100L), clock);
+        var order = anOrder("order1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        order.setTimeInForce(Order.TimeInForce.DAY);
+
+        orderBook.addOrder(order);
+        assertEquals(Instant.parse("2024-01-02T22:30:00Z"), order.getExpireTime(), "17:30 in New York is 22:30 UTC in winter");
+
+        clock.advanceMillis(13 * 3_600_000L);
+        orderBook.expireOrders();
+        assertFalse(orderBook.containsOrder(order));
+    }
+
+    @Test
+    void testDayOrderExpiryFollowsDaylightSavingTimeChange() {
+        // Saturday evening in New York, the clocks move forward on Sunday morning
+        clock = new MutableClock(Instant.parse("2024-03-09T23:00:00Z"));
+        var orderBook = new OrderBook(orderValidator, riskCheck, financialInstrumentsService, barAggregator,
+                new OrderBookProperties(SelfTradePreventionMode.NONE, "17:30:00", ZoneId.of("America/New_York"), 100L), clock);
+        var order = anOrder("order1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("10"));
+        order.setTimeInForce(Order.TimeInForce.DAY);
+
+        orderBook.addOrder(order);
+
+        assertEquals(Instant.parse("2024-03-10T21:30:00Z"), order.getExpireTime(), "Day end after the change is in daylight saving time");
+    }
+
+    @Test
+    void testFilledOrderIsNotExpiredTwice() {
+        var buyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("5"));
+        buyOrder.setTimeInForce(Order.TimeInForce.GTD);
+        buyOrder.setExpireTime(Instant.parse("2024-01-02T10:00:01Z"));
+        var sellOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("5"));
+        sellOrder.setTraderId("Trader456");
+
+        orderBook.addOrder(buyOrder);
+        orderBook.addOrder(sellOrder);
+        var sameIdOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("90.00"), new BigDecimal("5"));
+        orderBook.addOrder(sameIdOrder);
+
+        clock.advanceMillis(2_000);
+        orderBook.expireOrders();
+        assertTrue(orderBook.containsOrder(sameIdOrder), "Order reusing the id of a filled one should not expire");
+    }
+
+    @Test
+    void testIcebergOrderDisplaysOnlyPeak() {
+        var icebergOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("30"));
+        icebergOrder.setDisplayQuantity(new BigDecimal("10"));
+
+        orderBook.addOrder(icebergOrder);
+
+        for (var snapshot : List.of(
+                orderBook.findOrdersByTraderId("Trader123", null, 10).orders().get(0),
+                orderBook.findOrdersByFinancialInstrumentId("FI123", null, 10).orders().get(0))) {
+            assertEquals(0, snapshot.getQuantity().compareTo(new BigDecimal("10")));
+            assertNull(snapshot.getReserveQuantity(), "Hidden reserve should not be visible to readers");
+            assertEquals(0, snapshot.getOpenQuantity().compareTo(new BigDecimal("10")));
+        }
+        assertEquals(0, icebergOrder.getReserveQuantity().compareTo(new BigDecimal("20")), "Book should still hold the reserve");
+    }
+
+    @Test
+    void testIcebergOrderReplenishesAndLosesTimePriority() {
+        var icebergOrder = anOrder("sellOrder1", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("30"));
+        icebergOrder.setDisplayQuantity(new BigDecimal("10"));
+        var sellOrder = anOrder("sellOrder2", Order.Type.SELL, new BigDecimal("100.00"), new BigDecimal("10"));
+        var buyOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("105.00"), new BigDecimal("15"));
+        buyOrder.setTraderId("Trader456");
+
+        orderBook.addOrder(icebergOrder);
+        orderBook.addOrder(sellOrder);
+        orderBook.addOrder(buyOrder);
+
+        assertFalse(orderBook.containsOrder(buyOrder));
+        assertEquals(0, icebergOrder.getQuantity().compareTo(new BigDecimal("10")), "Peak should be refreshed from the reserve");
+        assertEquals(0, icebergOrder.getReserveQuantity().compareTo(new BigDecimal("10")));
+        assertEquals(0, sellOrder.getQuantity().compareTo(new BigDecimal("5")), "Refreshed peak should queue behind the other order");
+        verify(barAggregator).onTrade("FI123", new BigDecimal("100.00"), new BigDecimal("10"));
+        verify(barAggregator).onTrade("FI123", new BigDecimal("100.00"), new BigDecimal("5"));
+    }
+
+    @Test
+    void testCancelIcebergOrderReleasesReserve() {
+        var icebergOrder = anOrder("buyOrder1", Order.Type.BUY, new BigDecimal("100.00"), new BigDecimal("30"));
+        icebergOrder.setDisplayQuantity(new BigDecimal("10"));
+
+        orderBook.addOrder(icebergOrder);
+        orderBook.cancelOrder(icebergOrder.getId());
+
+        verify(riskCheck).release(icebergOrder, new BigDecimal("30"));
+    }
+
+
+    private OrderBook anOrderBook(SelfTradePreventionMode selfTradePrevention) {
+        return new OrderBook(orderValidator, riskCheck, financialInstrumentsService, barAggregator,
+                new OrderBookProperties(selfTradePrevention, "17:00:00", ZoneOffset.UTC, 100L), clock);
+    }
 
     private Order anOrder(String id, Order.Type type, BigDecimal price, BigDecimal quantity) {
         return new Order(id, "FI123", "Trader123", price, quantity, type);
     }
 
 
+    // the service is mocked, so the leg quotes the book publishes through it are set on the composite directly
+    private void quoteLegs(CompositeFinancialInstrument compositeInstrument, BigDecimal price) {
+        compositeInstrument.getChildInstruments().forEach(child -> compositeInstrument.updateLegQuote(child.getId(), price, price));
+    }
+
     private CompositeFinancialInstrument aCompositeFinancialInstrument(String id, List<String> childInstrumentIds) {
         Set<FinancialInstrument> childInstruments = childInstrumentIds.stream()
                 .map(fiId -> new FinancialInstrument(fiId, "Symbol" + fiId, BigDecimal.ZERO))
@@ -10,6 +10,9 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -20,6 +23,8 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class OrderValidatorTest {
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2024-01-02T10:00:00Z"), ZoneOffset.UTC);
+
     private final FinancialInstrumentsProperties properties = new FinancialInstrumentsProperties(
             Map.of(
                     "AAPL_ID", "AAPL"
@@ -29,7 +34,7 @@ class OrderValidatorTest {
     );
 
     private final FinancialInstrumentsService financialInstrumentsService = new FinancialInstrumentsService(properties);
-    private final OrderValidator orderValidator = new OrderValidator(financialInstrumentsService);
+    private final OrderValidator orderValidator = new OrderValidator(financialInstrumentsService, CLOCK);
 
     @ParameterizedTest
     @MethodSource("validationTestCases")
@@ -44,7 +49,25 @@ class OrderValidatorTest {
         assertDoesNotThrow(() -> orderValidator.validate(order));
     }
 
+    @Test
+    void shouldNotThrowAnyExceptionIfGoodTillDateOrderExpiresInFuture() {
+        var order = new Order(UUID.randomUUID().toString(), "AAPL_ID", "Trader1", BigDecimal.TEN, BigDecimal.ONE, Order.Type.BUY);
+        order.setTimeInForce(Order.TimeInForce.GTD);
+        order.setExpireTime(CLOCK.instant().plusMillis(1));
+        assertDoesNotThrow(() -> orderValidator.validate(order));
+    }
+
     static Stream<Arguments> validationTestCases() {
+        var invalidStopOrder = new Order(UUID.randomUUID().toString(), "AAPL_ID", "Trader1", BigDecimal.TEN, BigDecimal.ONE, Order.Type.BUY);
+        invalidStopOrder.setStopPrice(BigDecimal.ZERO);
+        var goodTillDateOrderWithoutExpireTime = new Order(UUID.randomUUID().toString(), "AAPL_ID", "Trader1", BigDecimal.TEN, BigDecimal.ONE, Order.Type.BUY);
+        goodTillDateOrderWithoutExpireTime.setTimeInForce(Order.TimeInForce.GTD);
+        var goodTillDateOrderAlreadyExpired = new Order(UUID.randomUUID().toString(), "AAPL_ID", "Trader1", BigDecimal.TEN, BigDecimal.ONE, Order.Type.BUY);
+        goodTillDateOrderAlreadyExpired.setTimeInForce(Order.TimeInForce.GTD);
+        goodTillDateOrderAlreadyExpired.setExpireTime(CLOCK.instant());
+        var icebergOrderWithTooLargePeak = new Order(UUID.randomUUID().toString(), "AAPL_ID", "Trader1", BigDecimal.TEN, BigDecimal.ONE, Order.Type.BUY);
+        icebergOrderWithTooLargePeak.setDisplayQuantity(BigDecimal.TEN);
+
         return Stream.of(
                 Arguments.of(
                         new Order(null, "AAPL_ID", "Trader1", BigDecimal.TEN, BigDecimal.ONE, Order.Type.BUY),
@@ -54,6 +77,10 @@ class OrderValidatorTest {
                         new Order(UUID.randomUUID().toString(), "AAPL_ID", "Trader1", BigDecimal.TEN, BigDecimal.ONE, null),
                         "type is missing"
                 ),
+                Arguments.of(
+                        new Order(UUID.randomUUID().toString(), "AAPL_ID", null, BigDecimal.TEN, BigDecimal.ONE, Order.Type.BUY),
+                        "trader id is missing"
+                ),
                 Arguments.of(
                         new Order(UUID.randomUUID().toString(), null, "Trader1", BigDecimal.TEN, BigDecimal.ONE, Order.Type.BUY),
                         "financial instrument id is missing"
@@ -66,6 +93,22 @@ class OrderValidatorTest {
                         new Order(UUID.randomUUID().toString(), "AAPL_ID", "Trader1", BigDecimal.TEN, BigDecimal.ZERO, Order.Type.BUY),
                         "quantity must be positive"
                 ),
+                Arguments.of(
+                        invalidStopOrder,
+                        "stop price must be positive"
+                ),
+                Arguments.of(
+                        goodTillDateOrderWithoutExpireTime,
+                        "expire time is missing"
+                ),
+                Arguments.of(
+                        goodTillDateOrderAlreadyExpired,
+                        "expire time must be in the future"
+                ),
+                Arguments.of(
+                        icebergOrderWithTooLargePeak,
+                        "display quantity must be positive and not greater than quantity"
+                ),
                 Arguments.of(
                         new Order(UUID.randomUUID().toString(), "UnknownInstrument", "Trader1", BigDecimal.TEN, BigDecimal.ONE, Order.Type.BUY),
                         "unknown financialInstrumentId=UnknownInstrument"
@@ -0,0 +1,61 @@
+package com.medvedev.vegatest.order;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StopOrderBookTest {
+
+    private final StopOrderBook stopOrderBook = new StopOrderBook();
+
+    @Test
+    void shouldTriggerBuyStopsWhenPriceRisesToStopPrice() {
+        stopOrderBook.add(aStopOrder("buy1", Order.Type.BUY, "105", 1));
+        stopOrderBook.add(aStopOrder("buy2", Order.Type.BUY, "110", 2));
+        stopOrderBook.add(aStopOrder("buy3", Order.Type.BUY, "105", 3));
+
+        var triggered = stopOrderBook.trigger("FI123", new BigDecimal("105"));
+
+        assertEquals(List.of("buy1", "buy3"), triggered.stream().map(Order::getId).toList());
+        assertEquals(List.of("buy2"), stopOrderBook.trigger("FI123", new BigDecimal("120")).stream().map(Order::getId).toList());
+    }
+
+    @Test
+    void shouldTriggerSellStopsWhenPriceFallsToStopPrice() {
+        stopOrderBook.add(aStopOrder("sell1", Order.Type.SELL, "95", 1));
+        stopOrderBook.add(aStopOrder("sell2", Order.Type.SELL, "90", 2));
+
+        var triggered = stopOrderBook.trigger("FI123", new BigDecimal("94"));
+
+        assertEquals(List.of("sell1"), triggered.stream().map(Order::getId).toList());
+    }
+
+    @Test
+    void shouldNotTriggerOrdersOfOtherInstruments() {
+        stopOrderBook.add(aStopOrder("buy1", Order.Type.BUY, "105", 1));
+
+        assertTrue(stopOrderBook.trigger("FI124", new BigDecimal("200")).isEmpty());
+    }
+
+    @Test
+    void shouldTriggerEachOrderOnlyOnce() {
+        var order = aStopOrder("buy1", Order.Type.BUY, "105", 1);
+        stopOrderBook.add(order);
+
+        assertEquals(1, stopOrderBook.trigger("FI123", new BigDecimal("106")).size());
+        assertTrue(stopOrderBook.trigger("FI123", new BigDecimal("106")).isEmpty());
+        assertFalse(stopOrderBook.remove(order));
+    }
+
+    private Order aStopOrder(String id, Order.Type type, String stopPrice, long sequence) {
+        var order = new Order(id, "FI123", "Trader123", null, BigDecimal.TEN, type);
+        order.setStopPrice(new BigDecimal(stopPrice));
+        order.setSequence(sequence);
+        return order;
+    }
+}
@@ -0,0 +1,142 @@
+package com.medvedev.vegatest.risk;
+
+import com.medvedev.vegatest.financialinstrument.FinancialInstrument;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsProperties;
+import com.medvedev.vegatest.financialinstrument.FinancialInstrumentsService;
+import com.medvedev.vegatest.order.Order;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PreTradeRiskCheckTest {
+    private final FinancialInstrumentsProperties properties = new FinancialInstrumentsProperties(
+            Map.of(
+                    "AAPL_ID", "AAPL"
+            ),
+            Set.of(new FinancialInstrument().setId("AAPL_ID")),
+            Set.of()
+    );
+
+    private final RiskLimitsProperties limits = new RiskLimitsProperties(
+            new BigDecimal("1000"),
+            new BigDecimal("20"),
+            3,
+            new BigDecimal("10")
+    );
+
+    private final Clock clock = Clock.fixed(Instant.parse("2024-01-01T10:00:00Z"), ZoneOffset.UTC);
+
+    private final FinancialInstrumentsService financialInstrumentsService = new FinancialInstrumentsService(properties);
+    private final PreTradeRiskCheck riskCheck = new PreTradeRiskCheck(limits, financialInstrumentsService, clock);
+
+    @BeforeEach
+    void setUp() {
+        financialInstrumentsService.updatePrice("AAPL_ID", new BigDecimal("100"));
+    }
+
+    @Test
+    void shouldReserveExposureForAcceptedOrder() {
+        riskCheck.check(anOrder(new BigDecimal("100"), new BigDecimal("5")));
+
+        assertEquals(0, riskCheck.getNotional("Trader1").compareTo(new BigDecimal("500")));
+        assertEquals(0, riskCheck.getOpenQuantity("Trader1").compareTo(new BigDecimal("5")));
+    }
+
+    @Test
+    void shouldReleaseExposureOnFillsAndCancels() {
+        var order = anOrder(new BigDecimal("100"), new BigDecimal("5"));
+        riskCheck.check(order);
+
+        riskCheck.release(order, new BigDecimal("2"));
+        riskCheck.release(order, new BigDecimal("3"));
+
+        assertEquals(0, riskCheck.getNotional("Trader1").compareTo(BigDecimal.ZERO));
+        assertEquals(0, riskCheck.getOpenQuantity("Trader1").compareTo(BigDecimal.ZERO));
+    }
+
+    @Test
+    void shouldReleaseOpenQuantityOfAllOrders() {
+        var order = anOrder(new BigDecimal("100"), new BigDecimal("5"));
+        var marketOrder = anOrder(null, new BigDecimal("4"));
+        riskCheck.check(order);
+        riskCheck.check(marketOrder);
+        riskCheck.release(order, new BigDecimal("2"));
+        order.subtractQuantity(new BigDecimal("2"));
+
+        riskCheck.releaseAll(List.of(order, marketOrder));
+
+        assertEquals(0, riskCheck.getNotional("Trader1").compareTo(BigDecimal.ZERO));
+        assertEquals(0, riskCheck.getOpenQuantity("Trader1").compareTo(BigDecimal.ZERO));
+    }
+
+    @Test
+    void shouldRejectOrderExceedingNotionalLimit() {
+        riskCheck.check(anOrder(new BigDecimal("100"), new BigDecimal("8")));
+
+        var exception = assertThrows(IllegalStateException.class, () -> riskCheck.check(anOrder(new BigDecimal("100"), new BigDecimal("3"))));
+        assertTrue(exception.getMessage().contains("exceeded exposure limits"));
+        assertEquals(0, riskCheck.getNotional("Trader1").compareTo(new BigDecimal("800")), "Rejected order should not reserve exposure");
+    }
+
+    @Test
+    void shouldRejectOrderExceedingOpenQuantityLimit() {
+        var exception = assertThrows(IllegalStateException.class, () -> riskCheck.check(anOrder(null, new BigDecimal("21"))));
+        assertTrue(exception.getMessage().contains("exceeded exposure limits"));
+    }
+
+    @Test
+    void shouldRejectOrderExceedingOrderRate() {
+        for (int i = 0; i < 3; i++) {
+            riskCheck.check(anOrder(new BigDecimal("100"), BigDecimal.ONE));
+        }
+
+        var exception = assertThrows(IllegalStateException.class, () -> riskCheck.check(anOrder(new BigDecimal("100"), BigDecimal.ONE)));
+        assertTrue(exception.getMessage().contains("exceeded order rate limit"));
+    }
+
+    @Test
+    void shouldNotCountRejectedOrdersAgainstOrderRate() {
+        riskCheck.check(anOrder(new BigDecimal("100"), BigDecimal.ONE));
+        riskCheck.check(anOrder(new BigDecimal("100"), BigDecimal.ONE));
+        assertThrows(IllegalStateException.class, () -> riskCheck.check(anOrder(new BigDecimal("100"), new BigDecimal("21"))));
+        var rejectedByBook = anOrder(new BigDecimal("100"), BigDecimal.ONE);
+        riskCheck.check(rejectedByBook);
+        assertThrows(IllegalStateException.class, () -> riskCheck.check(anOrder(new BigDecimal("100"), BigDecimal.ONE)));
+
+        riskCheck.rollback(rejectedByBook);
+
+        assertDoesNotThrow(() -> riskCheck.check(anOrder(new BigDecimal("100"), BigDecimal.ONE)));
+    }
+
+    @Test
+    void shouldRejectOrderOutsideOfPriceBand() {
+        assertDoesNotThrow(() -> riskCheck.check(anOrder(new BigDecimal("110"), BigDecimal.ONE)));
+
+        var exception = assertThrows(IllegalStateException.class, () -> riskCheck.check(anOrder(new BigDecimal("89.99"), BigDecimal.ONE)));
+        assertTrue(exception.getMessage().contains("outside of the allowed band"));
+    }
+
+    @Test
+    void shouldSkipPriceBandWithoutMarketPrice() {
+        financialInstrumentsService.updatePrice("AAPL_ID", BigDecimal.ZERO);
+
+        assertDoesNotThrow(() -> riskCheck.check(anOrder(new BigDecimal("150"), BigDecimal.ONE)));
+    }
+
+    private Order anOrder(BigDecimal price, BigDecimal quantity) {
+        return new Order(UUID.randomUUID().toString(), "AAPL_ID", "Trader1", price, quantity, Order.Type.BUY);
+    }
+}